@@ -20,11 +20,19 @@ import org.json.JSONObject;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 /**
  *
@@ -34,6 +42,7 @@ class AnagramsClient extends JProApplication {
 
 	private final String host = InetAddress.getLocalHost().getHostAddress();
 	private final int port = 8118;
+	private static final Path localSocket = Paths.get(System.getProperty("java.io.tmpdir"), "anagrams.sock");
 	private static final String version = "1.0.2";
 
 	private boolean connected = false;
@@ -83,7 +92,8 @@ class AnagramsClient extends JProApplication {
 	private AudioClip newGameClip;
 
 
-	private final LinkedBlockingQueue<JSONObject> commandQueue = new LinkedBlockingQueue<>();
+	private final LinkedBlockingQueue<ServerEvent> commandQueue = new LinkedBlockingQueue<>();
+	private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
 
 	/**
 	 *
@@ -310,10 +320,24 @@ class AnagramsClient extends JProApplication {
 	}
 
 	/**
-	 * Connect to the AnagramsServer instance running on the local host
+	 * Connect to the AnagramsServer instance running on the local host, through its Unix domain socket
+	 * if it has one and otherwise over TCP
 	 * @return true if connection was successful, false if not
 	 */
 	private boolean connect() {
+		if(Files.exists(localSocket)) {
+			try {
+				SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(localSocket));
+				this.serverOut = new ChannelOutputStream(channel);
+				this.serverIn = new ChannelInputStream(channel);
+				this.bufferedIn = new BufferedReader(new InputStreamReader(serverIn, StandardCharsets.UTF_8));
+				connected = true;
+				return true;
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				System.out.println("Unable to connect to server at " + localSocket + "; trying port " + port);
+			}
+		}
 		try {
 			Socket socket = new Socket(host, port);
 			this.serverOut = socket.getOutputStream();
@@ -336,6 +360,63 @@ class AnagramsClient extends JProApplication {
 
 	}
 
+	/**
+	 * Reads from a blocking SocketChannel. Unlike the streams from {@link java.nio.channels.Channels},
+	 * this does not hold the channel's lock while waiting, so one thread can write while another reads.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final SocketChannel channel;
+
+		ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes to a blocking SocketChannel
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+		private final SocketChannel channel;
+
+		ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -355,7 +436,6 @@ class AnagramsClient extends JProApplication {
 		settingsButton.setOnAction(e -> {if(!settingsMenu.isVisible()) settingsMenu.show(false);});
 
 		new Thread(this::readMessageLoop).start();
-		new Thread(this::executeCommandLoop).start();
 
 		borderPane.setDisable(false);
 		splitPane.setDisable(false);
@@ -517,6 +597,7 @@ class AnagramsClient extends JProApplication {
 						joinButton.setDisable(true);
 						new GameWindow(AnagramsClient.this, gameParams, username, gameOver, gameLog);
 						send("joingame", new JSONObject().put("gameID", gameID));
+						requestGameLog();
 						Platform.runLater(() -> joinButton.setDisable(false));
 					}
 				}
@@ -533,6 +614,7 @@ class AnagramsClient extends JProApplication {
 							watchButton.setDisable(true);
 							new GameWindow(AnagramsClient.this, gameParams, username, true, gameLog);
                             send("watchgame", new JSONObject().put("gameID", gameID));
+							requestGameLog();
 							Platform.runLater(() -> watchButton.setDisable(false));
 						}
 					}
@@ -607,18 +689,39 @@ class AnagramsClient extends JProApplication {
 		}
 
 		/**
+		 * Marks the game as finished. Clients in the game's room receive the log along with the news;
+		 * everyone else receives it only if they open the game.
 		 *
+		 * @param gameLog the game's log, or null if it has not been sent
 		 */
 		private void endGame(JSONArray gameLog) {
 			gameOver = true;
-			this.gameLog = gameLog;
 			notificationLabel.setText("Game over");
+			if(gameLog != null) {
+				setGameLog(gameLog);
+			}
+		}
+
+		/**
+		 * Stores the log of a finished game and shows it if the game is open.
+		 */
+		private void setGameLog(JSONArray gameLog) {
+			this.gameLog = gameLog;
 
 			GameWindow gameWindow = getGame();
 			if(gameWindow != null) {
 				gameWindow.endGame(gameLog);
 			}
 		}
+
+		/**
+		 * Asks the server for the log of a finished game that has just been opened, unless it is already known.
+		 */
+		private void requestGameLog() {
+			if(gameOver && gameLog == null) {
+				send("gamelog", new JSONObject().put("gameID", gameID));
+			}
+		}
 	}
 
 	/**
@@ -627,6 +730,16 @@ class AnagramsClient extends JProApplication {
 	 * @param data The data of the new player
 	 */
 	private void addPlayer(JSONObject data) {
+		addPlayer(data, true);
+	}
+
+	/**
+	 * Adds a player to the playerList and updates the textArea
+	 *
+	 * @param data The data of the new player
+	 * @param playSound whether to play a notification sound
+	 */
+	private void addPlayer(JSONObject data, boolean playSound) {
 
 		String name = data.getString("name");
 		if(playersList.containsKey(name)) {
@@ -638,7 +751,7 @@ class AnagramsClient extends JProApplication {
 		if(name.equals(username))
 			Platform.runLater(() -> chatBox.scrollTopProperty().set(0));
 
-		if(prefs.getBoolean("play_sounds"))
+		if(playSound && prefs.getBoolean("play_sounds"))
 			newPlayerClip.play();
 
 		String rating = data.getString("rating");
@@ -698,12 +811,45 @@ class AnagramsClient extends JProApplication {
 	 */
 	private void removePlayer(String playerToRemove) {
 		Player removedPlayer = playersList.remove(playerToRemove);
-		playersListPane.getChildren().remove(removedPlayer.label);
+		if(removedPlayer != null)
+			playersListPane.getChildren().remove(removedPlayer.label);
 		if(playerToRemove.equals(username)) {
 			disconnect();
 		}
 	}
 
+	/**
+	 * Fills the lobby with the chat history, players and games sent by the server on login.
+	 */
+	private void applyLobbySnapshot(JSONObject snapshot) {
+		StringBuilder chat = new StringBuilder();
+		JSONArray lines = snapshot.getJSONArray("chat");
+		for(int i = 0; i < lines.length(); i++) {
+			chat.append("\n").append(lines.getString(i));
+		}
+		chatBox.appendText(chat.toString());
+
+		JSONArray users = snapshot.getJSONArray("users");
+		for(int i = 0; i < users.length(); i++) {
+			addPlayer(users.getJSONObject(i), false);
+		}
+
+		JSONArray games = snapshot.getJSONArray("games");
+		for(int i = 0; i < games.length(); i++) {
+			JSONObject game = games.getJSONObject(i);
+			GamePane gamePane = new GamePane(game.getJSONObject("params"));
+			JSONArray players = game.getJSONArray("players");
+			for(int j = 0; j < players.length(); j++) {
+				JSONObject player = players.getJSONObject(j);
+				gamePane.addPlayerToGame(player.getString("name"), player.getString("rating"));
+			}
+			if(game.getBoolean("gameOver"))
+				gamePane.endGame(null);
+			else if(game.has("note"))
+				gamePane.setNotificationLabel(game.getString("note"));
+		}
+	}
+
 	/**
 	 * Inform the server that the player is no longer an active part of the specified game.
 	 *
@@ -719,104 +865,161 @@ class AnagramsClient extends JProApplication {
 	}
 
 	/**
-	 * Reads commands from the server and stores them in a BlockingQueue to run later
+	 * Reads commands from the server and queues them to be run on the FX thread
 	 */
 	private void readMessageLoop() {
 		System.out.println("reading messages");
-		while(connected) {
-			try {
-				String line;
-				while ((line = this.bufferedIn.readLine()) != null) {
-					try {
-						commandQueue.put(new JSONObject(line));
-					}
-					catch(JSONException je) {
-						System.out.println("Malformed JSON expression:\n" + line);
-					}
+		try {
+			String line;
+			while (connected && (line = this.bufferedIn.readLine()) != null) {
+				try {
+					ServerEvent event = new ServerEvent(new JSONObject(line));
+					if (!event.cmd().equals("note") && !event.cmd().equals("nexttiles") && !event.cmd().equals("chat"))
+						System.out.println("command received: " + line);
+					commandQueue.add(event);
+					if (dispatchScheduled.compareAndSet(false, true))
+						Platform.runLater(this::dispatchEvents);
 				}
-			}
-			catch (IOException | InterruptedException ex) {
-				if (connected) {
-					logOut();
+				catch(JSONException je) {
+					System.out.println("Malformed JSON expression:\n" + line);
 				}
 			}
 		}
+		catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+		}
+		if (connected) {
+			logOut();
+		}
 	}
 
 	/**
-	 * Executes commands from the server
+	 * A command from the server, decoded as it is read
 	 */
-	private void executeCommandLoop() {
-		AtomicBoolean blocked = new AtomicBoolean(false);
-		while(connected) {
-			try {
-				if(blocked.get()) continue;
-				blocked.set(true);
+	private record ServerEvent(String cmd, String gameID, JSONObject json) {
+		ServerEvent(JSONObject json) {
+			this(json.getString("cmd"), json.optString("gameID"), json);
+		}
 
-				final JSONObject json = commandQueue.take();
-				final String cmd = json.getString("cmd");
+		/**
+		 * @return whether a later event of the same kind for the same game makes this one obsolete
+		 */
+		boolean isCoalescable() {
+			return cmd.equals("note") || cmd.equals("nexttiles");
+		}
+	}
 
-				if (!cmd.equals("note") && !cmd.equals("nexttiles") && !cmd.equals("chat"))
-					System.out.println("command received: " + json);
+	/**
+	 * Runs every command received since the last dispatch in a single pass on the FX thread.
+	 * Only the latest note and the latest nexttiles for each game are shown.
+	 */
+	private void dispatchEvents() {
+		dispatchScheduled.set(false);
+		ArrayList<ServerEvent> events = new ArrayList<>();
+		commandQueue.drainTo(events);
+
+		//working backwards, the first note or nexttiles seen for each game is the latest
+		boolean[] superseded = new boolean[events.size()];
+		HashSet<String> latest = new HashSet<>();
+		for (int i = events.size() - 1; i >= 0; i--) {
+			ServerEvent event = events.get(i);
+			if (event.isCoalescable())
+				superseded[i] = !latest.add(event.cmd() + " " + event.gameID());
+		}
 
-				Platform.runLater(() -> {
-					switch (cmd) {
-						case "addgame" -> new GamePane(json);
-						case "alert" -> {
-							MessageDialog dialog = new MessageDialog(this, "Alert");
-							dialog.setText(json.getString("msg"));
-							dialog.addOkayButton();
-							dialog.show(true);
-						}
-						case "chat" -> chatBox.appendText("\n" + json.getString("msg"));
-						case "logoffplayer" -> removePlayer(json.getString("name"));
-						case "ratings" -> updateRatings(json.getJSONArray("ratings"));
-						case "removegame" -> gamesPanel.getChildren().remove(gamePanes.remove(json.getString("gameID")));
-						case "tree" -> {
-							if (explorer.isVisible())
-								explorer.setUpTree(json.getJSONArray("data"));
-						}
-						case "userdata" -> addPlayer(json);
-
-						//GamePane commands
-						default -> {
-							String gameID = json.optString("gameID");
-							if(gameID.isEmpty()) break;
-							GamePane gamePane = gamePanes.get(gameID);
-							if(gamePane == null) break;
-
-							switch (cmd) {
-								case "endgame" -> gamePane.endGame(json.getJSONArray("gamelog"));
-								case "note" -> gamePane.setNotificationLabel(json.getString("msg"));
-								case "removeplayer" -> gamePane.removePlayerFromGame(json.getString("name"));
-								case "takeseat" -> gamePane.addPlayerToGame(json.getString("name"), json.getString("rating"));
-
-								//GameWindow commands
-								default -> {
-									GameWindow gameWindow = gamePane.getGame();
-									if (gameWindow == null) break;
-									switch (cmd) {
-										case "abandonseat" -> gameWindow.removePlayer(json.getString("name"));
-										case "gamechat" -> gameWindow.handleChat(json.getString("msg"));
-										case "gamestate" -> gameWindow.showPosition(json);
-										case "makeword" -> gameWindow.makeWord(json.getString("player"), json.getString("word"), json.getString("tiles"));
-										case "nexttiles" -> gameWindow.setTiles(json.getString("tiles"));
-										case "plays" -> gameWindow.showPlays(json.getJSONObject("data"));
-										case "steal" -> gameWindow.doSteal(json.getString("shortPlayer"), json.getString("shortWord"), json.getString("longPlayer"),json.getString("longWord"),json.getString("tiles"));
-
-										default -> System.out.println("Command not recognized: " + cmd);
-									}
+		for (int i = 0; i < events.size(); i++) {
+			if (superseded[i]) continue;
+			ServerEvent event = events.get(i);
+			try {
+				execute(event);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Executes a command from the server
+	 */
+	private void execute(ServerEvent event) {
+		final String cmd = event.cmd();
+		final JSONObject json = event.json();
+
+		switch (cmd) {
+			case "addgame" -> new GamePane(json);
+			case "alert" -> {
+				MessageDialog dialog = new MessageDialog(this, "Alert");
+				dialog.setText(json.getString("msg"));
+				dialog.addOkayButton();
+				dialog.show(true);
+			}
+			case "chat" -> chatBox.appendText("\n" + json.getString("msg"));
+			case "lobbysnapshot" -> applyLobbySnapshot(json);
+			case "logoffplayer" -> removePlayer(json.getString("name"));
+			case "ratings" -> updateRatings(json.getJSONArray("ratings"));
+			case "removegame" -> gamesPanel.getChildren().remove(gamePanes.remove(json.getString("gameID")));
+			case "tree" -> {
+				if (explorer.isVisible())
+					explorer.setUpTree(json.getJSONArray("data"));
+			}
+			case "userdata" -> addPlayer(json);
+
+			//GamePane commands
+			default -> {
+				if(event.gameID().isEmpty()) break;
+				GamePane gamePane = gamePanes.get(event.gameID());
+				if(gamePane == null) break;
+
+				switch (cmd) {
+					case "endgame" -> gamePane.endGame(json.has("gamelog") ? readGameLog(json.getString("gamelog")) : null);
+					case "gamelog" -> gamePane.setGameLog(readGameLog(json.getString("gamelog")));
+					case "note" -> gamePane.setNotificationLabel(json.getString("msg"));
+					case "removeplayer" -> gamePane.removePlayerFromGame(json.getString("name"));
+					case "takeseat" -> gamePane.addPlayerToGame(json.getString("name"), json.getString("rating"));
+
+					//GameWindow commands
+					default -> {
+						GameWindow gameWindow = gamePane.getGame();
+						if (gameWindow == null) break;
+						switch (cmd) {
+							case "abandonseat" -> gameWindow.removePlayer(json.getString("name"));
+							case "gamechat" -> gameWindow.handleChat(json.getString("msg"));
+							case "gamestate" -> gameWindow.showPosition(json);
+							case "makeword" -> {
+								gameWindow.makeWord(json.getString("player"), json.getString("word"), json.getString("tiles"));
+								if(json.has("score"))
+									gameWindow.setScore(json.getString("player"), json.getInt("score"));
+							}
+							case "nexttiles" -> gameWindow.setTiles(json.getString("tiles"));
+							case "plays" -> gameWindow.showPlays(json.getJSONObject("data"));
+							case "steal" -> {
+								gameWindow.doSteal(json.getString("shortPlayer"), json.getString("shortWord"), json.getString("longPlayer"),json.getString("longWord"),json.getString("tiles"));
+								if(json.has("shortScore")) {
+									gameWindow.setScore(json.getString("shortPlayer"), json.getInt("shortScore"));
+									gameWindow.setScore(json.getString("longPlayer"), json.getInt("longScore"));
 								}
 							}
+
+							default -> System.out.println("Command not recognized: " + cmd);
 						}
 					}
-					blocked.set(false); 		//is this working?
-				});
-			} catch(InterruptedException e) {
-				e.printStackTrace();
+				}
 			}
 		}
-		logOut();
+	}
+
+	/**
+	 * Decompresses a game log sent by the server as gzipped JSON in Base64.
+	 */
+	static JSONArray readGameLog(String compressedLog) {
+		try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(compressedLog)))) {
+			return new JSONArray(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		catch(IOException ioe) {
+			System.out.println("Could not read game log: " + ioe.getMessage());
+			return new JSONArray();
+		}
 	}
 
 	/**
@@ -830,6 +830,14 @@ class GameWindow extends PopWindow {
             }
         }
 
+        /**
+         * Displays the score kept by the server, which takes precedence over the one counted here
+         */
+        private void setScore(int newScore) {
+            score = newScore;
+            playerScoreLabel.setText(score + "");
+        }
+
         /**
          *
          */
@@ -1001,6 +1009,14 @@ class GameWindow extends PopWindow {
     }
 
 
+    /**
+     * Updates the given player's score as sent by the server with each word made or stolen.
+     */
+    void setScore(String playerName, int score) {
+        if(players.containsKey(playerName))
+            players.get(playerName).setScore(score);
+    }
+
     /**
      * Removes the given word from the given player from whom it has been stolen.
      *
@@ -7,8 +7,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.prefs.BackingStoreException;
-import java.util.prefs.Preferences;
 
 /**
  * Tools to interact with and get data from the program.
@@ -42,7 +40,7 @@ class AdminServer extends Thread {
             String cmd;
             while ((cmd = in.readLine()) != null) {
                 switch (cmd) {
-                    case "help" -> out.println("Commands: game, top, users, shutdown");
+                    case "help" -> out.println("Commands: game, top, trees, users, shutdown");
 
                     case "shutdown" -> {
                         if (clientSocket.getInetAddress().isLoopbackAddress()) {
@@ -69,27 +67,13 @@ class AdminServer extends Thread {
                     }
 
                     case "top" -> {
-                        Preferences prefs = Preferences.userNodeForPackage(Server.class);
-                        try {
-                            HashMap<String, Integer> ratings = new HashMap<>();
-                            for (String user : prefs.childrenNames()) {
-                                ratings.put(user, prefs.node(user).getInt("rating", 0));
-                            }
-                            ratings.entrySet()
-                                    .stream()
-                                    .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                                    .forEach(entry -> {
-                                        if(entry.getValue() > 0)
-                                            out.println(entry.getKey() + ": " + entry.getValue());
-                                    });
-
-                        }
-                        catch(BackingStoreException bse) {
-                            bse.printStackTrace();
+                        for(Map.Entry<String, Integer> entry : UserStore.getRatings()) {
+                            out.println(entry.getKey() + ": " + entry.getValue());
                         }
-
                     }
 
+                    case "trees" -> out.println("Word trees: " + TreeCache.getStats());
+
                     case "users" -> out.println("Users: " + gameServer.getUsernames());
 
                     default -> out.println("Command not recognized");
@@ -1,104 +1,226 @@
 package server;
 
-import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
 
 /**
  * Stores a list of words as a trie data structure for fast lookup.
  * See: <a href="https://en.wikipedia.org/wiki/Trie">https://en.wikipedia.org/wiki/Trie</a>
  * Words are indexed according to a unique alphabetical ordering ("alphagram") so that
  * words which are anagrams of each other are stored in the same node.
- *
+ * <p>
+ * Rather than as a graph of node objects, the trie is packed into a handful of parallel arrays
+ * which are read directly from a (usually memory-mapped) {@link LexiconImage}.
+ * Each node is identified by an int index. Its children are stored contiguously in alphabetical
+ * order starting at firstChild[node] and are described by a 26-bit mask of the letters present, so
+ * the child for a given letter is found by counting the bits below it. The words belonging to a
+ * node occupy the slots firstWord[node] (inclusive) to firstWord[node + 1] (exclusive) of the word table.
  */
 class AlphagramTrie {
 
-	final Node rootNode = new Node();
+	static final int ROOT = 0;
+	static final int NONE = -1;
+	private static final int LETTERS = (1 << 26) - 1;
+
 	final String lexicon;
-	private String currentWord;
-	private String currentSuffix;
-	private String currentDefinition;
-	AlphagramTrie common;
+
+	private final IntBuffer childMasks;
+	private final IntBuffer firstChild;
+	private final IntBuffer firstWord;
+	private final IntBuffer textOffsets;
+	private final IntBuffer definitionOffsets;
+	private final LongBuffer lowCounts;
+	private final LongBuffer highCounts;
+	private final ByteBuffer suffixLengths;
+	private final ByteBuffer wordFlags;
+	private final ByteBuffer text;
+	private final ByteBuffer definitions;
+	private StealGraph stealGraph;
 
 	/**
-	 * Creates a root node to serve as the base of the trie.
-	 * Reads the words from the file, formats them, and adds them to the trie.
+	 * Loads the image of the given lexicon, building it from the word list if necessary.
 	 *
 	 * @param lexicon the name of the word list. This should be stored in a file called <lexicon>.txt
 	 *                with one word per line and definition (optional) separated by white space.
 	 */
 	AlphagramTrie(String lexicon) {
+		this(lexicon, LexiconImage.load(lexicon));
+		stealGraph = StealGraph.load(this);
+	}
+
+	/**
+	 * Divides an image into its sections.
+	 *
+	 * @param lexicon the name of the word list
+	 * @param image the binary image of the word list, as described in {@link LexiconImage}
+	 */
+	AlphagramTrie(String lexicon, ByteBuffer image) {
 
 		this.lexicon = lexicon;
 
-		try {
-			InputStream stream = getClass().getResourceAsStream("/wordlists/" + lexicon + ".txt");
-			BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-			for(String stringRead = reader.readLine(); stringRead != null; stringRead = reader.readLine()) {
-				if (!stringRead.isBlank() && !stringRead.startsWith("#")) {
-					String[] entry = stringRead.split("\\s+", 2);
-
-					currentSuffix = "";
-					if(entry[0].endsWith("#") || entry[0].endsWith("$")) {
-						currentWord = entry[0].replaceFirst("[#$]", "").toUpperCase();
-						currentSuffix = entry[0].substring(currentWord.length());
-					}
-					else
-						currentWord = entry[0].toUpperCase();
-
-					if (entry.length > 1)
-						currentDefinition = entry[1];
-					else
-						currentDefinition = "";
-
-					insertWord(Utils.alphabetize(currentWord), rootNode);
-				}
-			}
-			System.out.println("new trie created with lexicon = " + lexicon);
-		}
-		catch (FileNotFoundException exception) {
-			System.out.println("Word list not found.");
-		}
-		catch (IOException ioe) {
-			System.out.println(ioe.getMessage());
-		}
+		int nodeCount = image.getInt(8);
+		int wordCount = image.getInt(12);
+		int textLength = image.getInt(16);
+		int definitionsLength = image.getInt(20);
+
+		int position = LexiconImage.HEADER_SIZE;
+		childMasks = image.slice(position, 4 * nodeCount).asIntBuffer();
+		position += 4 * nodeCount;
+		firstChild = image.slice(position, 4 * nodeCount).asIntBuffer();
+		position += 4 * nodeCount;
+		firstWord = image.slice(position, 4 * (nodeCount + 1)).asIntBuffer();
+		position += 4 * (nodeCount + 1);
+		textOffsets = image.slice(position, 4 * (wordCount + 1)).asIntBuffer();
+		position += 4 * (wordCount + 1);
+		definitionOffsets = image.slice(position, 4 * (wordCount + 1)).asIntBuffer();
+		position += 4 * (wordCount + 1);
+		lowCounts = image.slice(position, 8 * wordCount).asLongBuffer();
+		position += 8 * wordCount;
+		highCounts = image.slice(position, 8 * wordCount).asLongBuffer();
+		position += 8 * wordCount;
+		suffixLengths = image.slice(position, wordCount);
+		position += wordCount;
+		wordFlags = image.slice(position, wordCount);
+		position += wordCount;
+		text = image.slice(position, textLength);
+		position += textLength;
+		definitions = image.slice(position, definitionsLength);
 	}
 
 	/**
-	 *  Generates the subset of this trie containing only common words
+	 * @return the number of words in the lexicon
 	 */
-	void common() {
-		common = new AlphagramTrie(lexicon + "-common");
+	int wordCount() {
+		return textOffsets.limit() - 1;
 	}
 
+	/**
+	 * @return a checksum of the words in the lexicon, by which files derived from the image can tell whether they are out of date
+	 */
+	int fingerprint() {
+		CRC32 crc = new CRC32();
+		crc.update(text.duplicate());
+		return (int)crc.getValue();
+	}
 
 	/**
-	 * Adds a new alphagram to the trie, one letter at a time, recursively. (An alphagram is a unique
-	 * alphabetical ordering of the letters in a word.)
-	 *
-	 * @param subalphagram: the suffix letters of the current alphagram which have not been added to the trie
-	 * @param node			the node whose path represents the prefix letters which have already been added
+	 * @return the steals between the words of the lexicon, or null if they have not been built
+	 */
+	StealGraph getStealGraph() {
+		return stealGraph;
+	}
+
+	/**
+	 * @return a bit mask in which bit i is set if the given node has a child for the letter 'A' + i
 	 */
-	private void insertWord(String subalphagram, Node node) {
+	int childMask(int node) {
+		return childMasks.get(node) & LETTERS;
+	}
 
-		final Node nextChild;
+	/**
+	 * @return whether the given node or any of its descendants holds a word from the common subset
+	 */
+	boolean hasCommon(int node) {
+		return (childMasks.get(node) & LexiconImage.COMMON_DESCENDANT) != 0;
+	}
 
-		//The trie already contains an alphagram with the same prefix
-		if (node.children.containsKey(subalphagram.charAt(0))) {
-			nextChild = node.children.get(subalphagram.charAt(0));
-		}
-		else {
-			//Add a new subtrie representing this alphagram's unique suffix
-			nextChild = new Node();
-			node.children.put(subalphagram.charAt(0), nextChild);
-		}
+	/**
+	 * @return the index of the given node's alphabetically first child. The remaining children follow
+	 * consecutively, one for each bit set in {@link #childMask(int)}.
+	 */
+	int firstChild(int node) {
+		return firstChild.get(node);
+	}
 
-		//This node is the end of a word. Store the original word and its definition here.
-		if (subalphagram.length() == 1) {
-			nextChild.words.add(new Word(currentWord, currentSuffix, currentDefinition));
-		}
-		else {
-			//This node is not the end of a word. Remove the first letter and continue
-			insertWord(subalphagram.substring(1), nextChild);
+	/**
+	 * @return the child of the given node reached by the given uppercase letter, or NONE if there is none
+	 */
+	int getChild(int node, char letter) {
+		int bit = letter - 'A';
+		if(bit < 0 || bit >= 26) return NONE;
+		int mask = childMasks.get(node) & LETTERS;
+		if((mask & (1 << bit)) == 0) return NONE;
+		return firstChild.get(node) + Integer.bitCount(mask & ((1 << bit) - 1));
+	}
+
+	/**
+	 * @return the index of the first word stored at the given node
+	 */
+	int wordsStart(int node) {
+		return firstWord.get(node);
+	}
+
+	/**
+	 * @return one past the index of the last word stored at the given node
+	 */
+	int wordsEnd(int node) {
+		return firstWord.get(node + 1);
+	}
+
+	/**
+	 * Decodes the word stored at the given index. Its letter counts are read from the image rather than
+	 * counted again, and the definition is left in the image until it is asked for.
+	 */
+	Word wordAt(int index) {
+		int start = textOffsets.get(index);
+		int end = textOffsets.get(index + 1);
+		int lettersEnd = end - suffixLengths.get(index);
+		return new Word(decode(text, start, lettersEnd, StandardCharsets.US_ASCII),
+				decode(text, lettersEnd, end, StandardCharsets.US_ASCII), countsAt(index), this, index);
+	}
+
+	/**
+	 * @return the number of letters in the word stored at the given index, without decoding it
+	 */
+	int lengthAt(int index) {
+		return textOffsets.get(index + 1) - textOffsets.get(index) - suffixLengths.get(index);
+	}
+
+	/**
+	 * @return the letter counts of the word stored at the given index
+	 */
+	LetterCounts countsAt(int index) {
+		return LetterCounts.packed(lowCounts.get(index), highCounts.get(index));
+	}
+
+	/**
+	 * @return whether the word stored at the given index belongs to the lexicon's common subset
+	 */
+	boolean isCommon(int index) {
+		return (wordFlags.get(index) & LexiconImage.COMMON) != 0;
+	}
+
+	/**
+	 * @return the definition of the word stored at the given index
+	 */
+	String definitionAt(int index) {
+		return decode(definitions, definitionOffsets.get(index), definitionOffsets.get(index + 1), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return whether the word stored at the given index has the same letters as the searchKey, ignoring case
+	 */
+	private boolean matches(int index, String searchKey) {
+		int start = textOffsets.get(index);
+		int length = textOffsets.get(index + 1) - suffixLengths.get(index) - start;
+		if(length != searchKey.length()) return false;
+		for(int i = 0; i < length; i++) {
+			if(text.get(start + i) != Character.toUpperCase(searchKey.charAt(i))) return false;
 		}
+		return true;
+	}
+
+	/**
+	 * Copies the bytes from start (inclusive) to end (exclusive) out of the given section into a String
+	 */
+	private static String decode(ByteBuffer section, int start, int end, Charset charset) {
+		byte[] bytes = new byte[end - start];
+		section.get(start, bytes);
+		return new String(bytes, charset);
 	}
 
 	/**
@@ -107,39 +229,22 @@ class AlphagramTrie {
 	 * @param searchKey the String to be searched for
 	 */
 	boolean contains(String searchKey) {
-
-		Node node = getNode(searchKey);
-
-		if(getNode(searchKey) != null) {
-			//A node has been found with the same alphagram as the searchKey
-			for(Word word : node.words) {
-				if(searchKey.toUpperCase().equals(word.letters)) {
-					return true; //the node contains the word
-				}
-			}
-		}
-		return false;
+		return getWord(searchKey) != null;
 	}
 
 	/**
 	 * Given a series of letters, not necessarily ordered, returns the corresponding node in
-	 * the trie. If the node does not exist, returns null.
+	 * the trie. If the node does not exist, returns NONE.
 	 *
 	 * @param searchKey the sequence of letters corresponding to the address of the searched-for node
 	 */
-	Node getNode(String searchKey) {
+	int getNode(String searchKey) {
 
 		String alphagram = Utils.alphabetize(searchKey.toUpperCase());
-		Node node = rootNode;
+		int node = ROOT;
 
-		//Recursively searches through the trie, one letter at a time
-		while (alphagram.length() > 0) {
-			if(node.children.containsKey(alphagram.charAt(0))) {
-				node = node.children.get(alphagram.charAt(0));
-				alphagram = alphagram.substring(1);
-			}
-			else //The trie does not contain any node matching the searchKey
-				return null;
+		for(int i = 0; i < alphagram.length() && node != NONE; i++) {
+			node = getChild(node, alphagram.charAt(i));
 		}
 
 		return node;
@@ -149,11 +254,11 @@ class AlphagramTrie {
 	 *
 	 */
 	Word getWord(String searchKey) {
-		Node node = getNode(searchKey);
-		if(node != null) {
-			for (Word word : node.words) {
-				if (word.letters.equalsIgnoreCase(searchKey)) {
-					return word;
+		int node = getNode(searchKey);
+		if(node != NONE) {
+			for (int i = wordsStart(node); i < wordsEnd(node); i++) {
+				if (matches(i, searchKey)) {
+					return wordAt(i);
 				}
 			}
 		}
@@ -186,9 +291,9 @@ class AlphagramTrie {
 	String getDefinition(String searchKey) {
 		Word word = getWord(searchKey);
 		if(word != null) {
-			return word.definition;
+			return word.getDefinition();
 		}
 		return null;
 	}
 
-}
\ No newline at end of file
+}
@@ -5,15 +5,27 @@ import org.json.JSONObject;
 
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.Preferences;
 
 /**
- *
+ * A game in progress, together with the players and watchers in its room.
+ * <p>
+ * Everything that changes the state of a game (commands from clients, clock ticks and Robot plays)
+ * is posted to the game's mailbox and carried out one message at a time, in the order posted, on the
+ * server's gameScheduler. The methods that change the game are therefore only called from within a
+ * message and need no further locking.
  */
 class Game {
 
@@ -40,26 +52,36 @@ class Game {
 	private final boolean allowChat;
 	private final boolean allowWatchers;
 
-	private Timer gameTimer = new Timer();
-	private Timer deleteTimer = new Timer();
+	private static final long LOBBY_NOTE_INTERVAL = 5000;
+	private String lobbyStatus = "";
+	private long lobbyNoteTime = 0;
+
+	private static final int MESSAGES_PER_TURN = 16;
+	private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean processing = new AtomicBoolean(false);
+
+	private ScheduledFuture<?> gameTimer;
+	private ScheduledFuture<?> deleteTimer;
+	private GameTask gameTask;
 	private final Random rgen = new Random();
 
-	boolean paused = false;		//true if game stops due to inactivity
-	boolean stopped = true;		//true if there are no Players playing
-	boolean gameOver = false;
+	volatile boolean paused = false;		//true if game stops due to inactivity
+	volatile boolean stopped = true;		//true if there are no Players playing
+	volatile boolean gameOver = false;
 
 	private int countdown = 10;
-	int timeRemaining;
+	volatile int timeRemaining;
 	private Robot robotPlayer;
 
-	final HashMap<Integer, String> plays = new HashMap<>();		//for some reason HashMap<Integer,JSONObject> fails
-
 	final ConcurrentHashMap<String, Player> players = new ConcurrentHashMap<>();
+	private final HashMap<String, Player> wordOwners = new HashMap<>();	//every word on the board, in uppercase, and the player who has it
 	final ConcurrentHashMap<String, ServerWorker> watchers = new ConcurrentHashMap<>();
 
-	private WordFinder wordFinder;
+	private volatile PostgameAnalysis analysis;
+	private final Play play;
 
-	JSONArray gameLog = new JSONArray();
+	final GameLog gameLog = new GameLog();
+	private String compressedLog;
 
 	/**
 	 *
@@ -82,6 +104,7 @@ class Game {
 		hasRobot = params.getBoolean("add_robot");
 		int skillLevel = params.getInt("skill_level");
 		rated = params.getBoolean("rated");
+		play = new Play(minLength, blankPenalty);
 
 		switch(speed) {
 			case "slow" -> delay = 9;
@@ -104,17 +127,77 @@ class Game {
 		saveState();
 	}
 
+	/**
+	 * Posts a message to the game's mailbox. Messages are carried out one at a time in the order posted.
+	 */
+	void post(Runnable message) {
+		mailbox.add(message);
+		if(processing.compareAndSet(false, true)) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Hands the processing of the mailbox to the gameScheduler. Once the server is shutting down, the messages
+	 * are carried out on the current thread instead, so that none is lost (e.g. the new ratings at the end of a game).
+	 */
+	private void schedule() {
+		try {
+			server.gameScheduler.execute(this::processMessages);
+		}
+		catch(RejectedExecutionException ree) {
+			processMessages();
+		}
+	}
+
+	/**
+	 * Carries out the messages in the mailbox. After a few messages the thread is handed back
+	 * to the gameScheduler so that one busy game cannot hold it indefinitely.
+	 */
+	private void processMessages() {
+		for(int i = 0; i < MESSAGES_PER_TURN; i++) {
+			Runnable message = mailbox.poll();
+			if(message == null) break;
+			try {
+				message.run();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		processing.set(false);
+		if(!mailbox.isEmpty() && processing.compareAndSet(false, true)) {
+			schedule();
+		}
+	}
+
+	/**
+	 * @return whether there is no one left in the game but Robots, abandoned players and no watchers
+	 */
+	private boolean isDeserted() {
+		return watchers.isEmpty() && players.values().stream().allMatch(player -> player instanceof Robot || player.abandoned);
+	}
+
 	/**
 	 * Deletes the game after three minutes of inactivity and saves the log to file.
 	 */
-	private class DeleteTask extends TimerTask {
+	private class DeleteTask implements Runnable {
 
 		@Override
 		public void run() {
+			post(this::delete);
+		}
+
+		private void delete() {
+			//someone may have joined since the deletion was scheduled
+			if(!isDeserted()) return;
+
 			server.removeGame(gameID);
-			deleteTimer.cancel();
+			if(analysis != null) {
+				analysis.cancel();
+			}
 
-			if (gameLog.length() > 20) {
+			if (gameLog.size() > 20) {
 				try {
 					Files.createDirectories(Paths.get("gamelogs"));
 					PrintStream logger = new PrintStream(new FileOutputStream("gamelogs/log" + gameID + ".txt"));
@@ -125,7 +208,7 @@ class Game {
 					logger.println("blankPenalty " + blankPenalty);
 					logger.println("speed " + speed);
 					logger.println();
-					logger.println(gameLog);
+					logger.println(gameLog.toJSON());
 					logger.close();
 				}
 				catch (Exception e) {
@@ -138,7 +221,7 @@ class Game {
 	/**
 	 * The sequence of game events
 	 */
-	private class GameTask extends TimerTask {
+	private class GameTask implements Runnable {
 
 		int thinkTime = 0;
 
@@ -150,20 +233,30 @@ class Game {
 		}
 
 		/**
-		 *
+		 * Called by the gameScheduler once a second
 		 */
 		@Override
 		public void run() {
+			post(this::tick);
+		}
+
+		/**
+		 *
+		 */
+		private void tick() {
+
+			//a tick may have been posted just before the task was cancelled
+			if(gameTask != this || gameOver) return;
 
 			//countdown to start or resume game
 			if(countdown > 0) {
 				if(tilesPlayed < minLength) {
 					String message = "Game will begin in " + countdown + " second" + (countdown == 1 ? "" : "s");
-					server.broadcast("note", new JSONObject().put("gameID", gameID).put("msg", message));
+					postNote("starting", message);
 				}
 				else if (timeRemaining > 0) {
 					String message = "Game will resume in " + countdown + " seconds";
-					server.broadcast("note", new JSONObject().put("gameID", gameID).put("msg", message));
+					postNote("resuming", message);
 				}
 				countdown--;
 				return;
@@ -178,7 +271,7 @@ class Game {
 
 			//update timer and check for game over
 			String message = "Time remaining: " + --timeRemaining;
-			server.broadcast("note", new JSONObject().put("gameID", gameID).put("msg", message));
+			postNote("playing", message);
 
 			if(timeRemaining <= 0) {
 				endGame();
@@ -220,7 +313,43 @@ class Game {
 	private void pauseGame() {
 		paused = true;
 		String message = "Game paused";
-		server.broadcast("note", new JSONObject().put("gameID", gameID).put("msg", message));
+		postNote("paused", message);
+	}
+
+	/**
+	 * Cancels a task on the server's gameScheduler, if it has been scheduled, without interrupting it if it is running.
+	 */
+	private static void cancel(ScheduledFuture<?> task) {
+		if(task != null) {
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Shows a note about the game's progress. Players and watchers receive every note, but clients in the
+	 * lobby receive one only when the game's status changes, and otherwise at most once every five seconds.
+	 *
+	 * @param status the kind of note, e.g. "playing" or "paused"
+	 * @param message the text of the note
+	 */
+	private void postNote(String status, String message) {
+		JSONObject json = new JSONObject().put("gameID", gameID).put("msg", message);
+		notifyRoom("note", json);
+
+		long now = System.currentTimeMillis();
+		if(!status.equals(lobbyStatus) || now - lobbyNoteTime >= LOBBY_NOTE_INTERVAL) {
+			lobbyStatus = status;
+			lobbyNoteTime = now;
+			server.notifyLobby("note", json, this);
+		}
+	}
+
+	/**
+	 * @return whether the given user is playing in or watching this game
+	 */
+	boolean inRoom(String username) {
+		Player player = players.get(username);
+		return player != null && !player.abandoned || watchers.containsKey(username);
 	}
 
 
@@ -229,21 +358,28 @@ class Game {
 	 */
 	private void endGame() {
 
-		gameTimer.cancel();
+		cancel(gameTimer);
 		gameOver = true;
 
 		saveState();
 
 		if(rated) {
+			List<Player> ratedPlayers = new ArrayList<>(players.values());
+			int[] newRatings = Player.getNewRatings(ratedPlayers);
 			JSONArray ratings = new JSONArray();
 			StringJoiner ratingsSummary = new StringJoiner(", ", "New ratings: ", "");
-			for(Player player : players.values()) {
-				int newRating = player.getNewRating(player.getRating(), players.values());
-				player.updateRating(newRating);
+			for(int p = 0; p < newRatings.length; p++) {
+				Player player = ratedPlayers.get(p);
+				player.updateRating(newRatings[p]);
+				gameLog.rate(player.name, String.valueOf(newRatings[p]));
 				ratings.put(new JSONObject()
 						.put("name", player.name)
-						.put("rating", String.valueOf(newRating)));
-				ratingsSummary.add(player.name + " → " + newRating);
+						.put("rating", String.valueOf(newRatings[p])));
+				ratingsSummary.add(player.name + " → " + newRatings[p]);
+			}
+			//the user store coalesces these and writes them out with its next batch
+			for(Player player : ratedPlayers) {
+				player.saveRating();
 			}
 			if(allowChat) {
 				notifyRoom("gamechat", new JSONObject()
@@ -255,21 +391,29 @@ class Game {
 				.put("ratings", ratings));
 		}
 
-		server.broadcast("endgame", new JSONObject()
+		//only the room needs the log now; anyone else can ask for it when they open the game
+		compressedLog = Utils.compress(gameLog.toJSON().toString());
+		notifyRoom("endgame", new JSONObject()
 			.put("gameID", gameID)
-			.put("gamelog", gameLog));
+			.put("gamelog", compressedLog));
+		server.notifyLobby("endgame", new JSONObject()
+			.put("gameID", gameID), this);
 
-		wordFinder = new WordFinder(minLength, blankPenalty, dictionary);
-		if(hasRobot) {
-			wordFinder.trees = robotPlayer.trees;
-		}
+		analysis = new PostgameAnalysis(gameID, minLength, blankPenalty, dictionary, gameLog, server.analysisExecutor);
+	}
+
+	/**
+	 * @return the log of a finished game, compressed with {@link Utils#compress(String)}, or null if the game is not over
+	 */
+	String getCompressedLog() {
+		return compressedLog;
 	}
 
 	/**
 	 *
 	 */
 	JSONObject getState() {
-		return gameLog.getJSONObject(gameLog.length() - 1);
+		return gameLog.getPosition(gameLog.size() - 1);
 	}
 
 	/**
@@ -278,9 +422,10 @@ class Game {
 	 *
 	 * @param newPlayer The player to be added
 	 */
-	synchronized void addPlayer(Player newPlayer) {
+	void addPlayer(Player newPlayer) {
 
-		if(players.keySet().contains(newPlayer.name)) {
+		boolean returning = players.containsKey(newPlayer.name);
+		if(returning) {
 			newPlayer = players.get(newPlayer.name);
 			newPlayer.abandoned = false;
 		}
@@ -289,14 +434,14 @@ class Game {
 			return;
 		}
 
-		deleteTimer.cancel();
+		cancel(deleteTimer);
 
 		//resume game if stopped
 		if(stopped) {
 			stopped = false;
-			gameTimer.cancel();
-			gameTimer = new Timer();
-			gameTimer.schedule(new GameTask(), 1000, 1000);
+			cancel(gameTimer);
+			gameTask = new GameTask();
+			gameTimer = server.gameScheduler.scheduleWithFixedDelay(gameTask, 1, 1, TimeUnit.SECONDS);
 		}
 
 		//inform newPlayer of players and their words
@@ -313,6 +458,9 @@ class Game {
 
 		//add the newPlayer
 		players.put(newPlayer.name, newPlayer);
+		if(!returning) {
+			gameLog.join(newPlayer.name, String.valueOf(newPlayer.getRating()));
+		}
 
 		saveState();
 
@@ -330,6 +478,7 @@ class Game {
 	void addRobot(Robot newRobot) {
 		robotPlayer = newRobot;
 		players.put(newRobot.name, newRobot);
+		gameLog.join(newRobot.name, String.valueOf(newRobot.getRating()));
 
 		saveState();
 
@@ -347,7 +496,7 @@ class Game {
 	 *
 	 * @param playerName The name of the player to be removed
 	 */
-	synchronized void removePlayer(String playerName) {
+	void removePlayer(String playerName) {
 
 		Player playerToRemove = players.get(playerName);
 		if(playerToRemove == null) return;
@@ -358,6 +507,7 @@ class Game {
 		else {
 			if (playerToRemove.words.isEmpty()) {
 				players.remove(playerName);
+				gameLog.leave(playerName);
 				server.broadcast("removeplayer", new JSONObject()
 						.put("gameID", gameID)
 						.put("name", playerName));
@@ -371,16 +521,14 @@ class Game {
 
 		if(players.values().stream().allMatch(player -> player instanceof Robot || player.abandoned)) {
 			stopped = true;
-			gameTimer.cancel();
+			cancel(gameTimer);
+			gameTask = null;
 			if(!gameOver) {
-				server.broadcast("note", new JSONObject()
-						.put("gameID", gameID)
-						.put("msg", "Time remaining: " + timeRemaining));
+				postNote("stopped", "Time remaining: " + timeRemaining);
 			}
 			if(watchers.isEmpty()) {
-				deleteTimer.cancel();
-				deleteTimer = new Timer();
-				deleteTimer.schedule(new DeleteTask(), 180000);
+				cancel(deleteTimer);
+				deleteTimer = server.gameScheduler.schedule(new DeleteTask(), 3, TimeUnit.MINUTES);
 			}
 		}
 
@@ -394,9 +542,9 @@ class Game {
 	 *
 	 * @param newWatcher The name of the watcher to be added
 	 */
-	synchronized void addWatcher(ServerWorker newWatcher) {
+	void addWatcher(ServerWorker newWatcher) {
 
-		deleteTimer.cancel();
+		cancel(deleteTimer);
 
 		if(!gameOver) {
 			//inform newWatcher of players and their words
@@ -421,20 +569,19 @@ class Game {
 	 *
 	 * @param watcherToRemove The name of the watcher to be removed
 	 */
-	synchronized void removeWatcher(String watcherToRemove) {
+	void removeWatcher(String watcherToRemove) {
 		watchers.remove(watcherToRemove);
 
-		if(watchers.isEmpty() && players.values().stream().allMatch(player -> player instanceof Robot || player.abandoned)) {
-			deleteTimer.cancel();
-			deleteTimer = new Timer();
-			deleteTimer.schedule(new DeleteTask(), 180000);
+		if(isDeserted()) {
+			cancel(deleteTimer);
+			deleteTimer = server.gameScheduler.schedule(new DeleteTask(), 3, TimeUnit.MINUTES);
 		}
 	}
 
 	/**
 	 * Removes the next tile from the tileBag and puts it in the tilePool. Notifies the players and watchers.
 	 */
-	private synchronized void drawTile() {
+	private void drawTile() {
 		if(tilesPlayed < tileBag.length) {
 			tilePool += tileBag[tilesPlayed];
 			tilesPlayed++;
@@ -454,21 +601,24 @@ class Game {
 	 * @param	longWord	The word that the longPlayer is attempting to form.
 	 * @return				whether the steal is successful
 	 */
-	synchronized boolean doSteal(String shortPlayer, String shortWord, String longPlayer, String longWord) {
+	boolean doSteal(String shortPlayer, String shortWord, String longPlayer, String longWord) {
 
 		if(countdown > 0) return false;
 
-		Play play = new Play(shortWord, longWord, tilePool, minLength, blankPenalty);
-		if(!play.isValid()) return false;
+		//the shortWord must still belong to the shortPlayer, e.g. it may have been stolen already
+		Player shortOwner = players.get(shortPlayer);
+		Player longOwner = players.get(longPlayer);
+		if(longOwner == null || shortOwner == null || wordOwners.get(shortWord.toUpperCase()) != shortOwner
+				|| !shortOwner.words.contains(shortWord)) return false;
+
+		//prevent duplicate words
+		if(wordOwners.containsKey(longWord.toUpperCase())) return false;
+
+		if(!play.isValid(shortWord, longWord, tilePool)) return false;
 
 		if(!Utils.isRearrangement(shortWord.toUpperCase(), longWord))
 			return false;
 
-		//prevent duplicate words
-		for(Player player : players.values()) {
-			if(Utils.containsCaseInsensitive(player.words, longWord)) return false;
-		}
-
 		String nextWord = play.nextWord();
 
 		if(hasRobot) {
@@ -476,10 +626,16 @@ class Game {
 			robotPlayer.makeTree(nextWord);
 		}
 
-		players.get(shortPlayer).words.remove(shortWord);
-		players.get(longPlayer).words.add(nextWord);
+		shortOwner.removeWord(shortWord);
+		wordOwners.remove(shortWord.toUpperCase());
+		longOwner.addWord(nextWord);
+		wordOwners.put(nextWord.toUpperCase(), longOwner);
+
+		String annotatedShortWord = dictionary.annotate(shortWord);
+		String annotatedLongWord = dictionary.annotate(nextWord);
+		gameLog.steal(shortPlayer, annotatedShortWord, longPlayer, annotatedLongWord);
 
-		tilePool = play.nextTiles;
+		tilePool = play.nextTiles();
 		String tiles = tilePool.isEmpty() ? "#" : tilePool;
 
 		saveState();
@@ -490,20 +646,20 @@ class Game {
 		notifyRoom("steal", new JSONObject()
 				.put("gameID",gameID)
 				.put("shortPlayer", shortPlayer)
-				.put("shortWord", dictionary.annotate(shortWord))
+				.put("shortWord", annotatedShortWord)
 				.put("longPlayer", longPlayer)
-				.put("longWord", dictionary.annotate(nextWord))
+				.put("longWord", annotatedLongWord)
+				.put("shortScore", shortOwner.getScore())
+				.put("longScore", longOwner.getScore())
 				.put("tiles", tiles));
 
 		//if the shortPlayer has abandoned the game and has no words, make room for another player to join
-		Player player = players.get(shortPlayer);
-		if(player != null && player.abandoned) {
-			if(player.words.isEmpty()) {
-				players.remove(shortPlayer);
-				server.broadcast("removeplayer", new JSONObject()
-						.put("gameID", gameID)
-						.put("name", player.name));
-			}
+		if(shortOwner.abandoned && shortOwner.words.isEmpty()) {
+			players.remove(shortPlayer);
+			gameLog.leave(shortPlayer);
+			server.broadcast("removeplayer", new JSONObject()
+					.put("gameID", gameID)
+					.put("name", shortOwner.name));
 		}
 
 		return true;
@@ -518,25 +674,28 @@ class Game {
 	 * @param    newWordPlayer    The name of the player attempting to make the word.
 	 * @param    entry            The word the player is attempting to make.
 	 */
-	synchronized void doMakeWord(String newWordPlayer, String entry) {
+	void doMakeWord(String newWordPlayer, String entry) {
 
 		if(countdown > 0) return;
 
+		Player player = players.get(newWordPlayer);
+		if(player == null) return;
+
 		//prevent duplicate words
-		for(Player player : players.values()) {
-			if(Utils.containsCaseInsensitive(player.words, entry)) return;
-		}
+		if(wordOwners.containsKey(entry.toUpperCase())) return;
 
-		Play play = new Play("", entry, tilePool, minLength, blankPenalty);
-		if(!play.isValid()) return;
+		if(!play.isValid("", entry, tilePool)) return;
 
 		String nextWord = play.nextWord();
 
-		players.get(newWordPlayer).words.add(nextWord);
+		player.addWord(nextWord);
+		wordOwners.put(nextWord.toUpperCase(), player);
+		String annotatedWord = dictionary.annotate(nextWord);
+		gameLog.makeWord(newWordPlayer, annotatedWord);
 
 		if(hasRobot) robotPlayer.makeTree(nextWord);
 
-		tilePool = play.nextTiles;
+		tilePool = play.nextTiles();
 		String tiles = tilePool.isEmpty() ? "#" : tilePool;
 
 		saveState();
@@ -546,7 +705,8 @@ class Game {
 		notifyRoom("makeword", new JSONObject()
 				.put("gameID", gameID)
 				.put("player", newWordPlayer)
-				.put("word", dictionary.annotate(nextWord))
+				.put("word", annotatedWord)
+				.put("score", player.getScore())
 				.put("tiles", tiles));
 	}
 
@@ -577,52 +737,29 @@ class Game {
 	}
 
 	/**
-	 * Adds a String describing the current game state, e.g.
-	 * "257 YU?IFOT GrubbTime [HAUYNES] Robot-Genius [BLEWARTS,POTJIES]"
-	 * to the gameLog. The symbol "#" stands in for an empty tile pool.
+	 * Adds a position to the gameLog, consisting of the time remaining, the tiles in the pool and
+	 * the words made since the last position. The symbol "#" stands in for an empty tile pool.
 	 */
-	private synchronized void saveState() {
+	private void saveState() {
 		if(!gameOver) {
-			gameLog.put(new JSONObject()
-				.put("time", timeRemaining)
-				.put("tiles", tilePool.isEmpty() ? "#" : tilePool)
-				.put("players", getFormattedWordList()));
+			gameLog.savePosition(timeRemaining, tilePool.isEmpty() ? "#" : tilePool);
 		}
 
 	}
 
 	/**
-	 * Computes what plays can be made at this position, or (if already computed) retrieves from memory.
+	 * Retrieves the plays that could be made at the given position of a finished game, which are
+	 * worked out in the background once the game ends.
 	 *
-	 * @param position the time corresponding to the position to be analyzed
-	 */
-	JSONObject findPlays(int position) {
-		synchronized(plays) {
-			JSONObject data = new JSONObject().put("gameID", gameID);
-			if(plays.containsKey(position)) {
-				return data.put("data", new JSONObject(this.plays.get(position)));
-			}
-			else {
-				JSONObject plays = wordFinder.findWords(gameLog.getJSONObject(position));
-				this.plays.put(position, plays.toString());
-				return data.put("data", plays);
-			}
-		}
-	}
-
-	/**
-	 * @return A semantically-ordered String containing all active players and Robots with or without words
-	 * as well as inactive players with words
+	 * @param position the index of the position in the game log
+	 * @return the encoded "plays" message, once the position has been analyzed
 	 */
-	synchronized JSONArray getFormattedWordList() {
-		JSONArray json = new JSONArray();
-		for(Player player : players.values()) {
-			json.put(new JSONObject()
-				.put("name", player.name)
-				.put("rating", String.valueOf(player.getRating()))
-				.put("words", new JSONArray(player.words.stream().map(word -> dictionary.annotate(word)).toArray())));
+	CompletableFuture<ByteBuffer> findPlays(int position) {
+		PostgameAnalysis analysis = this.analysis;
+		if(analysis == null) {
+			return CompletableFuture.failedFuture(new IllegalStateException("Game " + gameID + " is not over"));
 		}
-		return json;
+		return analysis.getPlays(position);
 	}
 
 	/**
@@ -631,17 +768,14 @@ class Game {
 	 * @param json The message containing the information to be shared
 	 */
 	void notifyRoom(String cmd, JSONObject json) {
-		synchronized(players) {
-			for(Player player : players.values()) {
-				if(!player.abandoned) {
-					server.getWorker(player.name).ifPresent(worker -> worker.send(cmd, json));
-				}
+		ByteBuffer message = ServerWorker.encode(cmd, json);
+		for(Player player : players.values()) {
+			if(!player.abandoned) {
+				server.getWorker(player.name).ifPresent(worker -> worker.send(cmd, message));
 			}
 		}
-		synchronized(watchers) {
-			for(ServerWorker watcher : watchers.values()) {
-				watcher.send(cmd, json);
-			}
+		for(ServerWorker watcher : watchers.values()) {
+			watcher.send(cmd, message);
 		}
 	}
 
@@ -0,0 +1,208 @@
+package server;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The history of a game, from which the board at any position can be recovered.
+ * <p>
+ * Rather than a full snapshot of the board at every position, the log stores the events that change the
+ * board (players joining and leaving, words being made and stolen, ratings changing once a rated game is over)
+ * along with the time and the tiles in the
+ * pool at each position. A copy of the whole board is kept every KEYFRAME_INTERVAL positions, so recovering
+ * a position never means replaying more than that many positions' worth of events.
+ * <p>
+ * Positions are recovered in the format the clients expect, e.g.
+ * {"time": 257, "tiles": "YU?IFOT", "players": [{"name": "GrubbTime", "rating": "1500", "words": ["HAUYNES"]}]}
+ */
+class GameLog {
+
+	private static final int KEYFRAME_INTERVAL = 32;
+
+	private enum Type {JOIN, LEAVE, MAKE_WORD, STEAL, RATE}
+
+	/**
+	 * A change to the board. For a steal, player and word are the longPlayer and longWord
+	 * while shortPlayer and shortWord give the word that was stolen. For a join or a new rating, word is the rating.
+	 */
+	private record Event(Type type, String player, String word, String shortPlayer, String shortWord) {}
+
+	/**
+	 * A player's rating and words, in the order they were formed
+	 */
+	private record Seat(String rating, ArrayList<String> words) {
+		Seat copy() {
+			return new Seat(rating, new ArrayList<>(words));
+		}
+	}
+
+	private final ArrayList<Event> events = new ArrayList<>();
+	private final ArrayList<LinkedHashMap<String, Seat>> keyframes = new ArrayList<>();
+	private final LinkedHashMap<String, Seat> board = new LinkedHashMap<>();
+
+	private int size = 0;
+	private int[] times = new int[64];
+	private String[] tiles = new String[64];
+	private int[] eventCounts = new int[64];	//the number of events that had happened by each position
+
+	/**
+	 *
+	 */
+	void join(String player, String rating) {
+		record(new Event(Type.JOIN, player, rating, null, null));
+	}
+
+	/**
+	 *
+	 */
+	void leave(String player) {
+		record(new Event(Type.LEAVE, player, null, null, null));
+	}
+
+	/**
+	 * @param word the word as it appears on the board, i.e. annotated and with blanks in lowercase
+	 */
+	void makeWord(String player, String word) {
+		record(new Event(Type.MAKE_WORD, player, word, null, null));
+	}
+
+	/**
+	 * @param shortWord the word that was stolen, as it appears on the board
+	 * @param longWord the word that was formed, as it appears on the board
+	 */
+	void steal(String shortPlayer, String shortWord, String longPlayer, String longWord) {
+		record(new Event(Type.STEAL, longPlayer, longWord, shortPlayer, shortWord));
+	}
+
+	/**
+	 * Records a player's new rating at the end of a rated game. Since no position is saved after the game ends,
+	 * the rating is shown from the last position on, as it is in the live game once the game is over.
+	 */
+	void rate(String player, String rating) {
+		record(new Event(Type.RATE, player, rating, null, null));
+		if(size > 0) {
+			int last = size - 1;
+			if(last % KEYFRAME_INTERVAL == 0) {
+				//the last position's keyframe is where its recovery starts, so it must hold the new rating too
+				for(int e = eventCounts[last]; e < events.size(); e++) {
+					apply(keyframes.get(keyframes.size() - 1), events.get(e));
+				}
+			}
+			eventCounts[last] = events.size();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void record(Event event) {
+		events.add(event);
+		apply(board, event);
+	}
+
+	/**
+	 * Marks a new position, consisting of the board as changed by the events recorded so far.
+	 *
+	 * @param time the time remaining
+	 * @param tilePool the tiles in the pool, or "#" if it is empty
+	 */
+	void savePosition(int time, String tilePool) {
+		if(size == times.length) {
+			times = Arrays.copyOf(times, 2 * size);
+			tiles = Arrays.copyOf(tiles, 2 * size);
+			eventCounts = Arrays.copyOf(eventCounts, 2 * size);
+		}
+		times[size] = time;
+		tiles[size] = tilePool;
+		eventCounts[size] = events.size();
+		if(size % KEYFRAME_INTERVAL == 0) {
+			keyframes.add(copy(board));
+		}
+		size++;
+	}
+
+	/**
+	 * @return the number of positions
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Recovers the given position from the nearest keyframe before it.
+	 */
+	JSONObject getPosition(int position) {
+		if(position < 0 || position >= size) {
+			throw new IndexOutOfBoundsException("Position " + position + " out of range for game log of " + size);
+		}
+		int keyframe = position / KEYFRAME_INTERVAL;
+		LinkedHashMap<String, Seat> board = copy(keyframes.get(keyframe));
+		for(int e = eventCounts[keyframe * KEYFRAME_INTERVAL]; e < eventCounts[position]; e++) {
+			apply(board, events.get(e));
+		}
+		return toJSON(position, board);
+	}
+
+	/**
+	 * @return every position, in order, as the full snapshots sent to the clients
+	 */
+	JSONArray toJSON() {
+		JSONArray json = new JSONArray();
+		LinkedHashMap<String, Seat> board = new LinkedHashMap<>();
+		int e = 0;
+		for(int position = 0; position < size; position++) {
+			for(; e < eventCounts[position]; e++) {
+				apply(board, events.get(e));
+			}
+			json.put(toJSON(position, board));
+		}
+		return json;
+	}
+
+	/**
+	 *
+	 */
+	private JSONObject toJSON(int position, LinkedHashMap<String, Seat> board) {
+		JSONArray players = new JSONArray();
+		for(Map.Entry<String, Seat> entry : board.entrySet()) {
+			players.put(new JSONObject()
+				.put("name", entry.getKey())
+				.put("rating", entry.getValue().rating())
+				.put("words", new JSONArray(entry.getValue().words())));
+		}
+		return new JSONObject()
+			.put("time", times[position])
+			.put("tiles", tiles[position])
+			.put("players", players);
+	}
+
+	/**
+	 *
+	 */
+	private static void apply(LinkedHashMap<String, Seat> board, Event event) {
+		switch(event.type()) {
+			case JOIN -> board.putIfAbsent(event.player(), new Seat(event.word(), new ArrayList<>()));
+			case LEAVE -> board.remove(event.player());
+			case MAKE_WORD -> board.get(event.player()).words().add(event.word());
+			case STEAL -> {
+				board.get(event.shortPlayer()).words().remove(event.shortWord());
+				board.get(event.player()).words().add(event.word());
+			}
+			case RATE -> board.computeIfPresent(event.player(), (player, seat) -> new Seat(event.word(), seat.words()));
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static LinkedHashMap<String, Seat> copy(LinkedHashMap<String, Seat> board) {
+		LinkedHashMap<String, Seat> copy = new LinkedHashMap<>();
+		board.forEach((player, seat) -> copy.put(player, seat.copy()));
+		return copy;
+	}
+}
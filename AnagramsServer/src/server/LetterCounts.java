@@ -0,0 +1,212 @@
+package server;
+
+/**
+ * The letters of a word, irrespective of order, packed into two longs as 26 four-bit counts:
+ * A to P in the low long and Q to Z in the high long, with A in the lowest bits.
+ * <p>
+ * Packed this way, whether one word's letters contain another's and which letters one word needs
+ * beyond another are answered with a handful of arithmetic operations on the two longs rather than
+ * by sorting or searching Strings. Each count is split into alternate bytes so that a guard bit above it
+ * catches any borrow when counts are subtracted.
+ * <p>
+ * Only uppercase letters are counted, so the blanks in a word (lowercase letters) and the wildcards
+ * in a tile pool are ignored. No word has more than 15 of any letter, but arbitrary Strings can, so
+ * their exact counts are kept in an array instead.
+ */
+final class LetterCounts {
+
+	static final LetterCounts EMPTY = new LetterCounts(0, 0, null);
+
+	private static final int MAX_PACKED = 15;
+	private static final long NIBBLES = 0x0F0F0F0F0F0F0F0FL;
+	private static final long GUARDS = 0x1010101010101010L;
+	private static final long ONES = 0x0101010101010101L;
+
+	private final long low;
+	private final long high;
+	private final int[] counts;	//the exact counts, only if some letter occurs more than MAX_PACKED times
+
+	private LetterCounts(long low, long high, int[] counts) {
+		this.low = low;
+		this.high = high;
+		this.counts = counts;
+	}
+
+	/**
+	 * Counts the uppercase letters in the given String
+	 */
+	static LetterCounts of(String letters) {
+		long low = 0;
+		long high = 0;
+		for(int i = 0; i < letters.length(); i++) {
+			int letter = letters.charAt(i) - 'A';
+			if(letter < 0 || letter >= 26) continue;
+			if(count(low, high, letter) == MAX_PACKED) {
+				return new LetterCounts(0, 0, toArray(letters));
+			}
+			if(letter < 16)
+				low += 1L << 4 * letter;
+			else
+				high += 1L << 4 * (letter - 16);
+		}
+		return new LetterCounts(low, high, null);
+	}
+
+	/**
+	 * @return the counts packed into the given longs, as returned by {@link #low()} and {@link #high()}
+	 */
+	static LetterCounts packed(long low, long high) {
+		return new LetterCounts(low, high, null);
+	}
+
+	/**
+	 * @return whether the counts fit in the two longs, which is always the case for the words of a lexicon
+	 */
+	boolean isPacked() {
+		return counts == null;
+	}
+
+	/**
+	 * @return the packed counts of the letters A to P
+	 */
+	long low() {
+		return low;
+	}
+
+	/**
+	 * @return the packed counts of the letters Q to Z
+	 */
+	long high() {
+		return high;
+	}
+
+	/**
+	 * @return whether every letter of the other word, counting repeats, is also in this one
+	 */
+	boolean contains(LetterCounts other) {
+		if(counts != null || other.counts != null) {
+			int[] these = toArray();
+			int[] those = other.toArray();
+			for(int letter = 0; letter < 26; letter++) {
+				if(those[letter] > these[letter]) return false;
+			}
+			return true;
+		}
+		return (subtract(other.low, low) | subtract(other.high, high)) == 0;
+	}
+
+	/**
+	 * @return the letters of this word that are left over once the letters of the other have been taken away,
+	 * e.g. BANANA minus NAB leaves AAN
+	 */
+	LetterCounts minus(LetterCounts other) {
+		if(counts != null || other.counts != null) {
+			int[] remaining = toArray();
+			int[] those = other.toArray();
+			boolean packable = true;
+			for(int letter = 0; letter < 26; letter++) {
+				remaining[letter] = Math.max(0, remaining[letter] - those[letter]);
+				packable &= remaining[letter] <= MAX_PACKED;
+			}
+			return packable ? pack(remaining) : new LetterCounts(0, 0, remaining);
+		}
+		return new LetterCounts(subtract(low, other.low), subtract(high, other.high), null);
+	}
+
+	/**
+	 * @return the total number of letters
+	 */
+	int size() {
+		if(counts != null) {
+			int size = 0;
+			for(int count : counts) size += count;
+			return size;
+		}
+		return sum(low) + sum(high);
+	}
+
+	/**
+	 * @return the letters in alphabetical order
+	 */
+	String toAlphagram() {
+		int[] array = toArray();
+		StringBuilder alphagram = new StringBuilder();
+		for(int letter = 0; letter < 26; letter++) {
+			for(int i = 0; i < array[letter]; i++) {
+				alphagram.append((char)('A' + letter));
+			}
+		}
+		return alphagram.toString();
+	}
+
+	/**
+	 * @return max(0, a - b) in each four-bit field
+	 */
+	private static long subtract(long a, long b) {
+		return subtractBytes(a & NIBBLES, b & NIBBLES) | subtractBytes(a >>> 4 & NIBBLES, b >>> 4 & NIBBLES) << 4;
+	}
+
+	/**
+	 * @return max(0, a - b) in each byte, where every byte of a and b is at most 15
+	 */
+	private static long subtractBytes(long a, long b) {
+		long difference = (a | GUARDS) - b;
+		long nonNegative = (difference & GUARDS) >>> 4;
+		return difference & nonNegative * 0x0F;
+	}
+
+	/**
+	 * @return the sum of the four-bit fields
+	 */
+	private static int sum(long x) {
+		return (int)(((x & NIBBLES) + (x >>> 4 & NIBBLES)) * ONES >>> 56);
+	}
+
+	/**
+	 *
+	 */
+	private static int count(long low, long high, int letter) {
+		return (int)(letter < 16 ? low >>> 4 * letter : high >>> 4 * (letter - 16)) & 0xF;
+	}
+
+	/**
+	 *
+	 */
+	private int[] toArray() {
+		if(counts != null) {
+			return counts.clone();
+		}
+		int[] array = new int[26];
+		for(int letter = 0; letter < 26; letter++) {
+			array[letter] = count(low, high, letter);
+		}
+		return array;
+	}
+
+	/**
+	 *
+	 */
+	private static int[] toArray(String letters) {
+		int[] array = new int[26];
+		for(int i = 0; i < letters.length(); i++) {
+			int letter = letters.charAt(i) - 'A';
+			if(letter >= 0 && letter < 26) array[letter]++;
+		}
+		return array;
+	}
+
+	/**
+	 *
+	 */
+	private static LetterCounts pack(int[] array) {
+		long low = 0;
+		long high = 0;
+		for(int letter = 0; letter < 26; letter++) {
+			if(letter < 16)
+				low |= (long)array[letter] << 4 * letter;
+			else
+				high |= (long)array[letter] << 4 * (letter - 16);
+		}
+		return new LetterCounts(low, high, null);
+	}
+}
@@ -0,0 +1,335 @@
+package server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Converts a word list into the binary image read by AlphagramTrie, and loads such images from disk.
+ * <p>
+ * Images are built ahead of time by running this class (see the buildLexicons task in build.gradle)
+ * and are memory-mapped by the server at startup, so that no parsing or sorting is needed before the
+ * server can accept connections. If no image is found, the word list is compiled in memory instead.
+ * <p>
+ * Words that also appear in the lexicon's common subset (the file <lexicon>-common.txt) are flagged
+ * within the same image, so that no separate trie is needed for them.
+ * <p>
+ * An image consists of a header followed by these sections, in order:
+ * <pre>
+ *   int[nodeCount]         childMasks          bit i is set if the node has a child for 'A' + i;
+ *                                              COMMON_DESCENDANT is set if a common word lies at or below the node
+ *   int[nodeCount]         firstChild          index of the node's first child
+ *   int[nodeCount + 1]     firstWord           index of the node's first word
+ *   int[wordCount + 1]     textOffsets         where each word (with its suffix) begins in the text
+ *   int[wordCount + 1]     definitionOffsets   where each definition begins in the definitions
+ *   long[wordCount]        lowCounts           the packed counts of the letters A to P in each word (see {@link LetterCounts})
+ *   long[wordCount]        highCounts          the packed counts of the letters Q to Z in each word
+ *   byte[wordCount]        suffixLengths       the number of '#' or '$' markers at the end of each word
+ *   byte[wordCount]        wordFlags           COMMON if the word belongs to the common subset
+ *   byte[textLength]       text                the words with their suffixes, in US-ASCII
+ *   byte[definitionsLength] definitions        the definitions, in UTF-8
+ * </pre>
+ */
+class LexiconImage {
+
+	static final String DIRECTORY = "lexicons";
+	static final String EXTENSION = ".lex";
+
+	static final int MAGIC = 0x414E4C58; //"ANLX"
+	static final int VERSION = 3;
+	static final int HEADER_SIZE = 24;
+
+	static final int COMMON_DESCENDANT = 1 << 26;
+	static final byte COMMON = 1;
+
+	/**
+	 * A word together with its alphagram, used only while the image is being built
+	 */
+	private record Entry(String alphagram, String word, String suffix, String definition, boolean common) implements Comparable<Entry> {
+		@Override
+		public int compareTo(Entry other) {
+			return alphagram.compareTo(other.alphagram);
+		}
+	}
+
+	/**
+	 * Returns the image for the given lexicon, memory-mapping it from the lexicons directory if it has been built
+	 * and otherwise compiling it from the word list.
+	 *
+	 * @param lexicon the name of the word list
+	 */
+	static ByteBuffer load(String lexicon) {
+		Path path = Paths.get(DIRECTORY, lexicon + EXTENSION);
+		if(Files.exists(path)) {
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(image.getInt(0) == MAGIC && image.getInt(4) == VERSION) {
+					System.out.println("lexicon image mapped from " + path);
+					return image;
+				}
+				System.out.println("lexicon image " + path + " is out of date");
+			}
+			catch(IOException ioe) {
+				System.out.println(ioe.getMessage());
+			}
+		}
+		return compile(lexicon);
+	}
+
+	/**
+	 * Reads the words from the file, formats them, and packs them into an image.
+	 *
+	 * @param lexicon the name of the word list. This should be stored in a file called <lexicon>.txt
+	 *                with one word per line and definition (optional) separated by white space.
+	 */
+	static ByteBuffer compile(String lexicon) {
+
+		ArrayList<Entry> entries = new ArrayList<>();
+		HashSet<String> commonWords = readCommonWords(lexicon);
+
+		try {
+			InputStream stream = LexiconImage.class.getResourceAsStream("/wordlists/" + lexicon + ".txt");
+			BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+			for(String stringRead = reader.readLine(); stringRead != null; stringRead = reader.readLine()) {
+				if (!stringRead.isBlank() && !stringRead.startsWith("#")) {
+					String[] entry = stringRead.split("\\s+", 2);
+
+					String currentWord;
+					String currentSuffix = "";
+					if(entry[0].endsWith("#") || entry[0].endsWith("$")) {
+						currentWord = entry[0].replaceFirst("[#$]", "").toUpperCase();
+						currentSuffix = entry[0].substring(currentWord.length());
+					}
+					else
+						currentWord = entry[0].toUpperCase();
+
+					//the packed trie only has room for the letters A to Z, and the packed counts for 15 of each
+					if(currentWord.isEmpty() || !currentWord.chars().allMatch(c -> c >= 'A' && c <= 'Z')
+							|| !LetterCounts.of(currentWord).isPacked())
+						continue;
+
+					String currentDefinition = entry.length > 1 ? entry[1] : "";
+
+					entries.add(new Entry(Utils.alphabetize(currentWord), currentWord, currentSuffix, currentDefinition, commonWords.contains(currentWord)));
+				}
+			}
+			System.out.println("new trie created with lexicon = " + lexicon);
+		}
+		catch (FileNotFoundException exception) {
+			System.out.println("Word list not found.");
+		}
+		catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+		}
+
+		return pack(entries);
+	}
+
+	/**
+	 * Reads the common subset of the given lexicon, if there is one.
+	 *
+	 * @param lexicon the name of the full word list. The common words should be stored in a file
+	 *                called <lexicon>-common.txt with one word per line.
+	 * @return the common words in uppercase, or an empty set if the lexicon has no common subset
+	 */
+	private static HashSet<String> readCommonWords(String lexicon) {
+		HashSet<String> commonWords = new HashSet<>();
+		InputStream stream = LexiconImage.class.getResourceAsStream("/wordlists/" + lexicon + "-common.txt");
+		if(stream == null) {
+			return commonWords;
+		}
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+			for(String stringRead = reader.readLine(); stringRead != null; stringRead = reader.readLine()) {
+				if (!stringRead.isBlank() && !stringRead.startsWith("#")) {
+					commonWords.add(stringRead.split("\\s+", 2)[0].replaceFirst("[#$]", "").toUpperCase());
+				}
+			}
+		}
+		catch (IOException ioe) {
+			System.out.println(ioe.getMessage());
+		}
+		return commonWords;
+	}
+
+	/**
+	 * Lays out the trie breadth-first so that the children of every node are adjacent in memory.
+	 * Because the entries are sorted by alphagram, each node corresponds to a contiguous range of
+	 * entries sharing its prefix; the words that end exactly at a node sort to the front of that range.
+	 *
+	 * @param entries every word in the lexicon paired with its alphagram
+	 */
+	private static ByteBuffer pack(ArrayList<Entry> entries) {
+
+		Entry[] sorted = entries.toArray(new Entry[0]);
+		Arrays.sort(sorted);
+
+		//the number of nodes is at most the number of distinct prefixes
+		int capacity = 1;
+		for(int i = 0; i < sorted.length; i++) {
+			String alphagram = sorted[i].alphagram;
+			int shared = i == 0 ? 0 : commonPrefix(sorted[i - 1].alphagram, alphagram);
+			capacity += alphagram.length() - shared;
+		}
+
+		int[] childMasks = new int[capacity];
+		int[] firstChild = new int[capacity];
+		int[] firstWord = new int[capacity + 1];
+		Entry[] words = new Entry[sorted.length];
+
+		//for each node, the range of entries [rangeStart, rangeEnd) that share its prefix
+		int[] rangeStart = new int[capacity];
+		int[] rangeEnd = new int[capacity];
+		int[] depth = new int[capacity];
+		rangeEnd[AlphagramTrie.ROOT] = sorted.length;
+
+		int nodeCount = 1;
+		int wordCount = 0;
+
+		for(int node = 0; node < nodeCount; node++) {
+			int d = depth[node];
+			int i = rangeStart[node];
+			int end = rangeEnd[node];
+
+			firstWord[node] = wordCount;
+			while(i < end && sorted[i].alphagram.length() == d) {
+				words[wordCount++] = sorted[i++];
+			}
+
+			firstChild[node] = nodeCount;
+			while(i < end) {
+				char letter = sorted[i].alphagram.charAt(d);
+				int j = i + 1;
+				while(j < end && sorted[j].alphagram.charAt(d) == letter) {
+					j++;
+				}
+				childMasks[node] |= 1 << (letter - 'A');
+				rangeStart[nodeCount] = i;
+				rangeEnd[nodeCount] = j;
+				depth[nodeCount] = d + 1;
+				nodeCount++;
+				i = j;
+			}
+		}
+		firstWord[nodeCount] = wordCount;
+
+		//children always follow their parents, so working backwards marks every node above a common word
+		for(int node = nodeCount - 1; node >= 0; node--) {
+			boolean hasCommon = false;
+			for(int w = firstWord[node]; w < firstWord[node + 1] && !hasCommon; w++) {
+				hasCommon = words[w].common;
+			}
+			int lastChild = firstChild[node] + Integer.bitCount(childMasks[node]);
+			for(int child = firstChild[node]; child < lastChild && !hasCommon; child++) {
+				hasCommon = (childMasks[child] & COMMON_DESCENDANT) != 0;
+			}
+			if(hasCommon) {
+				childMasks[node] |= COMMON_DESCENDANT;
+			}
+		}
+
+		//encode the words and definitions
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		ByteArrayOutputStream definitions = new ByteArrayOutputStream();
+		int[] textOffsets = new int[wordCount + 1];
+		int[] definitionOffsets = new int[wordCount + 1];
+		byte[] suffixLengths = new byte[wordCount];
+		byte[] wordFlags = new byte[wordCount];
+		long[] lowCounts = new long[wordCount];
+		long[] highCounts = new long[wordCount];
+		for(int w = 0; w < wordCount; w++) {
+			textOffsets[w] = text.size();
+			definitionOffsets[w] = definitions.size();
+			text.writeBytes((words[w].word + words[w].suffix).getBytes(StandardCharsets.US_ASCII));
+			definitions.writeBytes(words[w].definition.getBytes(StandardCharsets.UTF_8));
+			suffixLengths[w] = (byte)words[w].suffix.length();
+			wordFlags[w] = words[w].common ? COMMON : 0;
+			LetterCounts counts = LetterCounts.of(words[w].word);
+			lowCounts[w] = counts.low();
+			highCounts[w] = counts.high();
+		}
+		textOffsets[wordCount] = text.size();
+		definitionOffsets[wordCount] = definitions.size();
+
+		ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE
+				+ 4 * (3 * nodeCount + 1)
+				+ 4 * (2 * wordCount + 2)
+				+ 8 * (2 * wordCount)
+				+ 2 * wordCount + text.size() + definitions.size());
+
+		image.putInt(MAGIC)
+			.putInt(VERSION)
+			.putInt(nodeCount)
+			.putInt(wordCount)
+			.putInt(text.size())
+			.putInt(definitions.size());
+		image.asIntBuffer().put(childMasks, 0, nodeCount);
+		image.position(image.position() + 4 * nodeCount);
+		image.asIntBuffer().put(firstChild, 0, nodeCount);
+		image.position(image.position() + 4 * nodeCount);
+		image.asIntBuffer().put(firstWord, 0, nodeCount + 1);
+		image.position(image.position() + 4 * (nodeCount + 1));
+		image.asIntBuffer().put(textOffsets);
+		image.position(image.position() + 4 * (wordCount + 1));
+		image.asIntBuffer().put(definitionOffsets);
+		image.position(image.position() + 4 * (wordCount + 1));
+		image.asLongBuffer().put(lowCounts);
+		image.position(image.position() + 8 * wordCount);
+		image.asLongBuffer().put(highCounts);
+		image.position(image.position() + 8 * wordCount);
+		image.put(suffixLengths);
+		image.put(wordFlags);
+		image.put(text.toByteArray());
+		image.put(definitions.toByteArray());
+
+		return image.flip();
+	}
+
+	/**
+	 * @return the length of the longest common prefix of the two Strings
+	 */
+	private static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while(i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Compiles each of the given word lists and writes its image and steal graph to the lexicons directory, e.g.
+	 * java server.LexiconImage NWL23 CSW24
+	 */
+	public static void main(String[] args) throws IOException {
+		Files.createDirectories(Paths.get(DIRECTORY));
+		for(String lexicon : args) {
+			Path path = Paths.get(DIRECTORY, lexicon + EXTENSION);
+			ByteBuffer image = compile(lexicon);
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while(image.hasRemaining()) {
+					channel.write(image);
+				}
+			}
+			System.out.println("wrote " + path);
+
+			//the trie reads the image by absolute position, so it can still be used once written
+			AlphagramTrie trie = new AlphagramTrie(lexicon, image);
+			Path graphPath = Paths.get(DIRECTORY, lexicon + StealGraph.EXTENSION);
+			try(FileChannel channel = FileChannel.open(graphPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer graph = StealGraph.build(trie);
+				while(graph.hasRemaining()) {
+					channel.write(graph);
+				}
+			}
+			System.out.println("wrote " + graphPath);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Answers requests of the form /<lexicon>/<word> on the lookup port with the word's tree in JSON.
+ * <p>
+ * Responses are cached fully encoded, both as plain and as gzipped JSON, so that a word being looked up
+ * over and over costs no more than writing out the bytes. Concurrent requests for a word that is not yet
+ * in the cache wait for a single copy of its response to be built. Each response carries an ETag and
+ * a Cache-Control header, so that browsers and the nginx proxy in front of the server can cache it as well.
+ */
+class LookupService implements HttpHandler {
+
+	private static final long MAX_SIZE = 32L << 20;	//bytes
+	private static final String CACHE_CONTROL = "public, max-age=86400";
+
+	/**
+	 * The encoded body of a response, and the tag by which clients can tell whether their copy is current
+	 */
+	private record Response(byte[] json, byte[] gzipped, String tag) {
+		int size() {
+			return json.length + gzipped.length;
+		}
+	}
+
+	private final Server server;
+	private final LinkedHashMap<String, Response> responses = new LinkedHashMap<>(64, 0.75f, true);
+	private final HashMap<String, CompletableFuture<Response>> pending = new HashMap<>();
+	private long size = 0;
+
+	/**
+	 *
+	 */
+	LookupService(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try(exchange) {
+			String method = exchange.getRequestMethod();
+			if(!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.getResponseHeaders().add("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+				return;
+			}
+
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			if(path.length != 3 || path[2].isEmpty()) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+				return;
+			}
+			String lexicon = path[1].toUpperCase();
+			String query = path[2].toUpperCase();
+			System.out.println("lexicon: " + lexicon +", query: " + query);
+
+			Response response;
+			try {
+				response = getResponse(lexicon, query);
+			}
+			catch(RuntimeException e) {
+				e.printStackTrace();
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+				return;
+			}
+
+			boolean gzip = prefersGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+			byte[] body = gzip ? response.gzipped() : response.json();
+
+			Headers headers = exchange.getResponseHeaders();
+			//the plain and gzipped bodies are different representations, so they are tagged differently
+			String etag = "\"" + response.tag() + (gzip ? "-gzip" : "") + "\"";
+			headers.add("ETag", etag);
+			headers.add("Cache-Control", CACHE_CONTROL);
+			headers.add("Vary", "Accept-Encoding");
+			if(matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+				return;
+			}
+
+			if(gzip) {
+				headers.add("Content-Encoding", "gzip");
+			}
+			headers.add("Content-Type", "application/json; charset=utf-8");
+			if(method.equals("HEAD")) {
+				headers.add("Content-Length", Integer.toString(body.length));
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+			try(OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		}
+	}
+
+	/**
+	 * Decides from an Accept-Encoding header whether to send the gzipped body, e.g. "gzip, deflate" or "gzip;q=0.5, *".
+	 *
+	 * @return whether gzip is acceptable (q > 0) and preferred at least as much as the identity encoding
+	 */
+	private static boolean prefersGzip(String acceptEncoding) {
+		if(acceptEncoding == null) return false;
+		double gzip = -1;
+		double identity = -1;
+		double any = -1;
+		for(String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String coding = parts[0].trim().toLowerCase();
+			double q = 1;
+			for(int p = 1; p < parts.length; p++) {
+				String parameter = parts[p].trim().toLowerCase();
+				if(parameter.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(parameter.substring(2));
+					}
+					catch(NumberFormatException nfe) {
+						q = 0;
+					}
+				}
+			}
+			switch(coding) {
+				case "gzip", "x-gzip" -> gzip = q;
+				case "identity" -> identity = q;
+				case "*" -> any = q;
+			}
+		}
+		//identity is always acceptable, but only outranks gzip if the client says so
+		if(gzip < 0) gzip = Math.max(any, 0);
+		if(identity < 0) identity = Math.max(any, 0);
+		return gzip > 0 && gzip >= identity;
+	}
+
+	/**
+	 * Compares the entity-tags listed in an If-None-Match header with the current one, ignoring any weak
+	 * indicator (W/) as the weak comparison requires.
+	 *
+	 * @return whether the header is "*" or lists exactly the given etag
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if(ifNoneMatch == null) return false;
+		for(String listed : ifNoneMatch.split(",")) {
+			listed = listed.trim();
+			if(listed.equals("*")) return true;
+			if(listed.startsWith("W/")) listed = listed.substring(2);
+			if(listed.equals(etag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the cached response for the given word, building it if no other request already is
+	 */
+	private Response getResponse(String lexicon, String query) {
+		String key = lexicon + "/" + query;
+		CompletableFuture<Response> future;
+		synchronized(responses) {
+			Response response = responses.get(key);
+			if(response != null) {
+				return response;
+			}
+			future = pending.get(key);
+			if(future == null) {
+				pending.put(key, new CompletableFuture<>());
+			}
+		}
+		if(future != null) {
+			return future.join();
+		}
+
+		Response response;
+		try {
+			response = encode(lexicon, query);
+		}
+		catch(RuntimeException e) {
+			synchronized(responses) {
+				pending.remove(key).completeExceptionally(e);
+			}
+			throw e;
+		}
+		synchronized(responses) {
+			pending.remove(key).complete(response);
+			responses.put(key, response);
+			size += response.size();
+			Iterator<Map.Entry<String, Response>> it = responses.entrySet().iterator();
+			while(size > MAX_SIZE && responses.size() > 1) {
+				size -= it.next().getValue().size();
+				it.remove();
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Builds the tree of the given word and encodes it
+	 */
+	private Response encode(String lexicon, String query) {
+		AlphagramTrie dictionary = server.getDictionary(lexicon);
+		if(dictionary == null) {
+			throw new IllegalArgumentException("Unknown lexicon " + lexicon);
+		}
+		WordTree tree = TreeCache.get(query, dictionary);
+		byte[] json = tree.generateJSON(tree.rootNode.getWord().letters).toString().getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4);
+		try(GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(json);
+		}
+		catch(IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(json);
+		String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(json.length);
+		return new Response(json, bytes.toByteArray(), tag);
+	}
+}
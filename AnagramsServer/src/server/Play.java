@@ -1,25 +1,32 @@
 package server;
 
 /**
- * An attempt to form a word from the pool or to steal a preexisting word
+ * Checks attempts to form a word from the pool or to steal a preexisting word.
+ * <p>
+ * A Play is reusable: the letters are tallied in 26-slot count arrays that belong to the Play, so
+ * {@link #isValid(String, String, String)} allocates nothing and can be called on thousands of candidates
+ * in a row. After a valid play, {@link #nextWord()} and {@link #nextTiles()} describe its result.
+ * A Play is not thread-safe; each thread or game should have its own.
  */
 class Play {
 
-    private final String shortWord;
-    private final String longWord;
-
     private final int minLength;
     private final int blankPenalty;
 
-    String nextTiles;
-    private String blanks = "";
+    private String longWord;
+    private String tiles;
+
+    private final int[] entry = new int[26];        //letters of the longWord not yet accounted for
+    private final int[] skipped = new int[26];      //letters of the longWord supplied by the shortWord
+    private final int[] pool = new int[26];         //letters remaining in the pool
+    private final int[] taken = new int[26];        //letters taken from the pool
+    private final int[] blanks = new int[26];       //letters of the nextWord formed by blanks
+    private int poolBlanks;
+    private int blanksTaken;
+    private char[] blanksToKeep = new char[16];     //blanks transferred from the shortWord, in order
+    private int numBlanksToKeep;
 
     /**
-     *
-     * @param shortWord The word that is being stolen. For plays taken directly from the pool (i.e. not steals)
-     *                  this is the empty String. Blanks are indicated by lowercase letters.
-     * @param longWord The word the player is trying to form
-     * @param tiles The tiles in the pool, including wildcards (? tiles)
      * @param minLength A word must be at least this many letters long. This will be a number between 4 and 10, inclusive.
      * @param blankPenalty For each blank used in the word, this many additional tiles must be added. For example,
      *                     if the minLength is 7 and the blankPenalty is 2, then a word taken from the pool must be
@@ -27,10 +34,7 @@ class Play {
      *                     because of the penalty). If a blank is changed, the rule is the same; the longWord must be
      *                     at least 10 letters long.
      */
-    Play(String shortWord, String longWord, String tiles, int minLength, int blankPenalty) {
-        this.shortWord = shortWord;
-        this.longWord = longWord;
-        this.nextTiles = tiles;
+    Play(int minLength, int blankPenalty) {
         this.minLength = minLength;
         this.blankPenalty = blankPenalty;
     }
@@ -39,25 +43,63 @@ class Play {
      * Checks whether the play can be formed from the pool and preexisting words and
      * whether it long enough, accounting for the number of blanks required.
      *
+     * @param shortWord The word that is being stolen. For plays taken directly from the pool (i.e. not steals)
+     *                  this is the empty String. Blanks are indicated by lowercase letters.
+     * @param longWord The word the player is trying to form, in uppercase
+     * @param tiles The tiles in the pool, including wildcards (? tiles)
      * @return whether the play is valid according to the rules of Anagrams
      */
-    boolean isValid() {
+    boolean isValid(String shortWord, String longWord, String tiles) {
 
-         String entry = longWord;
-         String blanksToKeep = "";
-         int blanksToChange = 0;
+        this.longWord = longWord;
+        this.tiles = tiles;
+
+        for (int i = 0; i < 26; i++) {
+            entry[i] = 0;
+            skipped[i] = 0;
+            pool[i] = 0;
+            taken[i] = 0;
+            blanks[i] = 0;
+        }
+        poolBlanks = 0;
+        blanksTaken = 0;
+        numBlanksToKeep = 0;
+
+        for (int i = 0; i < longWord.length(); i++) {
+            char c = longWord.charAt(i);
+            if (c < 'A' || c > 'Z') return false;
+            entry[c - 'A']++;
+        }
+        int entryLength = longWord.length();
+
+        for (int i = 0; i < tiles.length(); i++) {
+            char c = tiles.charAt(i);
+            if (c >= 'A' && c <= 'Z') pool[c - 'A']++;
+            else if (c == '?') poolBlanks++;
+        }
+
+        if (blanksToKeep.length < shortWord.length()) {
+            blanksToKeep = new char[shortWord.length()];
+        }
+        int blanksToChange = 0;
 
         //Search for characters in the word to be stolen
-        for (String s : shortWord.split("")) {
-            if (entry.contains(s)) {
+        for (int i = 0; i < shortWord.length(); i++) {
+            char c = shortWord.charAt(i);
+            if (c >= 'A' && c <= 'Z' && entry[c - 'A'] > 0) {
                 //Transfer a tile from the shortWord to the longWord
-                entry = entry.replaceFirst(s, "");
+                entry[c - 'A']--;
+                skipped[c - 'A']++;
+                entryLength--;
             }
-            else if (Character.isLowerCase(s.charAt(0))) {
-                if (entry.contains(s.toUpperCase())) {
+            else if (c >= 'a' && c <= 'z') {
+                int letter = c - 'a';
+                if (entry[letter] > 0) {
                     //Transfer the blank without re-designating
-                    blanksToKeep += s.toUpperCase();
-                    entry = entry.replaceFirst(s.toUpperCase(), "");
+                    blanksToKeep[numBlanksToKeep++] = (char)('A' + letter);
+                    entry[letter]--;
+                    skipped[letter]++;
+                    entryLength--;
                 }
                 else {
                     //Mark a blank for re-designation
@@ -70,20 +112,31 @@ class Play {
             }
         }
 
-        //Search pool for missing tiles
-        for (String s : entry.split("")) {
-            if(entry.length() > blanksToChange) {
-                if (nextTiles.contains(s)) {
+        //Search pool for missing tiles, visiting the letters left in the longWord in order
+        for (int letter = 0; letter < 26; letter++) {
+            blanks[letter] = skipped[letter]; //reused below to count occurrences
+        }
+        for (int i = 0; i < longWord.length(); i++) {
+            int letter = longWord.charAt(i) - 'A';
+            if (blanks[letter]-- > 0) continue; //this occurrence came from the shortWord
+
+            if (entryLength > blanksToChange) {
+                if (pool[letter] > 0) {
                     //Add a regular tile to the word
-                    nextTiles = nextTiles.replaceFirst(s, "");
-                    entry = entry.replaceFirst(s, "");
+                    pool[letter]--;
+                    taken[letter]++;
+                    entry[letter]--;
+                    entryLength--;
                 }
-                else if(!blanksToKeep.isEmpty()) {
-                    for (String t : blanksToKeep.split("")) {
+                else {
+                    for (int k = 0; k < numBlanksToKeep; k++) {
                         //Mark a retained blank for re-designation
-                        if (nextTiles.contains(t)) {
-                            blanksToKeep = blanksToKeep.replaceFirst(t, "");
-                            nextTiles = nextTiles.replaceFirst(t, "");
+                        int t = blanksToKeep[k] - 'A';
+                        if (pool[t] > 0) {
+                            System.arraycopy(blanksToKeep, k + 1, blanksToKeep, k, numBlanksToKeep - k - 1);
+                            numBlanksToKeep--;
+                            pool[t]--;
+                            taken[t]++;
                             blanksToChange++;
                             break;
                         }
@@ -93,27 +146,23 @@ class Play {
         }
 
         //Designate blanks to missing letters
-        int penalty = 0;
-        if(!entry.isEmpty()) {
-            for (String s : entry.split("")) {
-                blanks += s;
-                if (blanksToChange-- > 0) {
-                    //Re-designate a blank
-                    penalty += blankPenalty;
-                } else if (nextTiles.contains("?")) {
-                    //Take a blank from the pool and designate it
-                    nextTiles = nextTiles.replaceFirst("\\?", "");
-                    penalty += blankPenalty + 1;
-                } else {
-                    //Insufficient blanks available
-                    return false;
-                }
-            }
+        int changed = Math.min(entryLength, blanksToChange);
+        blanksTaken = entryLength - changed;
+        if (blanksTaken > poolBlanks) {
+            //Insufficient blanks available
+            return false;
+        }
+        int penalty = changed * blankPenalty + blanksTaken * (blankPenalty + 1);
+
+        for (int letter = 0; letter < 26; letter++) {
+            blanks[letter] = entry[letter];
+        }
+        for (int k = 0; k < numBlanksToKeep; k++) {
+            blanks[blanksToKeep[k] - 'A']++;
         }
-        blanks += blanksToKeep;
 
         //Check if word is long enough, accounting for the blank penalty
-        if(shortWord.isEmpty())
+        if (shortWord.isEmpty())
             return longWord.length() - minLength >= penalty;
         else
             return longWord.length() - shortWord.length() >= Math.max(penalty, 1);
@@ -121,13 +170,43 @@ class Play {
     }
 
     /**
-     * @return a formatted word with lowercase letters representing blanks
+     * @return the word formed by the last valid play, with lowercase letters representing blanks
      */
     String nextWord() {
-        String nextWord = longWord;
-        for(String s : blanks.split(""))
-            nextWord = nextWord.replaceFirst(s + "(?!.*?" + s + ")", s.toLowerCase()); //replace last occurrence
-        return nextWord;
+        char[] nextWord = longWord.toCharArray();
+        int[] remaining = blanks.clone();
+        //blanks take the place of the last occurrences of their letters
+        for (int i = nextWord.length - 1; i >= 0; i--) {
+            int letter = nextWord[i] - 'A';
+            if (remaining[letter] > 0) {
+                remaining[letter]--;
+                nextWord[i] = Character.toLowerCase(nextWord[i]);
+            }
+        }
+        return new String(nextWord);
+    }
+
+    /**
+     * @return the tiles left in the pool after the last valid play, in their original order
+     */
+    String nextTiles() {
+        StringBuilder nextTiles = new StringBuilder(tiles.length());
+        int[] remaining = taken.clone();
+        int blanksRemaining = blanksTaken;
+        //the first occurrences of each tile are the ones taken
+        for (int i = 0; i < tiles.length(); i++) {
+            char c = tiles.charAt(i);
+            if (c >= 'A' && c <= 'Z' && remaining[c - 'A'] > 0) {
+                remaining[c - 'A']--;
+            }
+            else if (c == '?' && blanksRemaining > 0) {
+                blanksRemaining--;
+            }
+            else {
+                nextTiles.append(c);
+            }
+        }
+        return nextTiles.toString();
     }
 
 }
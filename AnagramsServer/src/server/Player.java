@@ -1,14 +1,14 @@
 package server;
 
-import java.util.Collection;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * Implements a multiplayer version of the ELO rating system.
  */
 class Player {
 
-    boolean abandoned = false;
+    volatile boolean abandoned = false;
 
     static final int D = 400;
     static final int K = 100;
@@ -17,7 +17,8 @@ class Player {
     Game game;
     String name;
     UserData prefs;
-    final CopyOnWriteArrayList<String> words = new CopyOnWriteArrayList<>();
+    final LinkedHashSet<String> words = new LinkedHashSet<>();     //in the order they were formed; only changed through addWord and removeWord
+    private volatile int score = 0;
 
     /**
      *
@@ -43,50 +44,53 @@ class Player {
     }
 
     /**
-     *
+     * Sets this player's rating, without saving it
      */
     void updateRating(int newRating) {
         prefs.setRating(newRating);
     }
 
     /**
-     *
+     * Writes this player's rating to the backing store
      */
-    int getNewRating(int rating, Collection<Player> players) {
-        int numPlayers = players.size();
-        int numMatches = numPlayers * (numPlayers - 1) / 2;
-        double score = getScore();
-        double wins = getWins(score, players);
-        double expectedWins = getExpectedWins(rating, players);
-        double expectedScore = getExpectedScore(rating, players, numMatches);
-        double totalScore = getTotalScore(players);
-
-        return (int)Math.round(rating + K*(wins - expectedWins)/numPlayers + K*L*(score - expectedScore)/totalScore);
+    void saveRating() {
+        prefs.saveRating();
     }
 
     /**
+     * Computes the new rating of every player in a finished game in a single pass over the players' scores,
+     * from the ratings they held before the game, whatever order the ratings are then saved in.
      *
+     * @return the new ratings, in the order of the given players
      */
-    private double getWins(double score, Collection<Player> players) {
-        double wins = -0.5;
-        for(Player player : players) {
-            if(score > player.getScore())
-                wins += 1;
-            else if(score == player.getScore())
-                wins += 0.5;
+    static int[] getNewRatings(List<Player> players) {
+        int numPlayers = players.size();
+        int numMatches = numPlayers * (numPlayers - 1) / 2;
+        int[] scores = new int[numPlayers];
+        int[] ratings = new int[numPlayers];
+        double totalScore = 0;
+        for(int p = 0; p < numPlayers; p++) {
+            scores[p] = players.get(p).getScore();
+            ratings[p] = players.get(p).getRating();
+            totalScore += scores[p];
         }
-        return wins;
-    }
 
-    /**
-     *
-     */
-    private double getExpectedWins(int rating, Collection<Player> players) {
-        double expectedWins = -0.5;
-        for(Player player : players) {
-            expectedWins += getExpectedWinRate(rating, player.getRating());
+        int[] newRatings = new int[numPlayers];
+        for(int p = 0; p < numPlayers; p++) {
+            double wins = -0.5;
+            double expectedWins = -0.5;
+            for(int q = 0; q < numPlayers; q++) {
+                if(scores[p] > scores[q])
+                    wins += 1;
+                else if(scores[p] == scores[q])
+                    wins += 0.5;
+                expectedWins += getExpectedWinRate(ratings[p], ratings[q]);
+            }
+            double expectedScore = totalScore*expectedWins/numMatches;
+
+            newRatings[p] = (int)Math.round(ratings[p] + K*(wins - expectedWins)/numPlayers + K*L*(scores[p] - expectedScore)/totalScore);
         }
-        return expectedWins;
+        return newRatings;
     }
 
     /**
@@ -97,31 +101,25 @@ class Player {
     }
 
     /**
-     *
+     * Awards the given word to this player. Only called by the game's mailbox.
      */
-    private int getScore() {
-        return words.stream()
-                .mapToInt(n -> n.length() * n.length())
-                .sum();
+    void addWord(String word) {
+        if(words.add(word))
+            score += word.length() * word.length();
     }
 
     /**
-     *
+     * Takes the given word from this player. Only called by the game's mailbox.
      */
-    private double getExpectedScore(int rating, Collection<Player> players, int numMatches) {
-        return getTotalScore(players)*getExpectedWins(rating, players)/numMatches;
+    void removeWord(String word) {
+        if(words.remove(word))
+            score -= word.length() * word.length();
     }
 
     /**
-     *
+     * @return the sum of the squares of the lengths of this player's words
      */
-    private double getTotalScore(Collection<Player> players) {
-        return players.stream().mapToDouble(Player::getScore).reduce(0, Double::sum);
+    int getScore() {
+        return score;
     }
-
-
-
-
-
-
 }
@@ -0,0 +1,226 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the words that can be formed from the tiles in a pool, including its blanks (? tiles), under the rules
+ * of a game: a word made with b blanks must be at least minLength + b * (blankPenalty + 1) letters long.
+ * <p>
+ * The search walks the trie in alphabetical order, taking each letter from the pool's letter counts if one
+ * is left and otherwise from a blank, since using a blank where a tile would do never helps. Every node of the
+ * trie is reached at most once, so no word is found twice. A branch is abandoned as soon as the tiles left in
+ * the pool that could still extend it (those alphabetically no earlier than its last letter) are too few to
+ * bring it up to the required length; further blanks cannot help, since each one raises the requirement
+ * by at least as much as the length it adds.
+ * <p>
+ * Like a {@link Play}, a PoolSearch keeps its counts in arrays of its own, so it allocates little and is not thread-safe.
+ */
+class PoolSearch {
+
+	/**
+	 * Receives the nodes of the trie whose words can be formed from the pool
+	 */
+	interface Visitor {
+		/**
+		 * @param node a node holding at least one word long enough to be played
+		 * @param blanks how many of each letter of the node's words must be made from blanks. This array belongs to the search.
+		 * @return whether to continue the search
+		 */
+		boolean visit(int node, int[] blanks);
+	}
+
+	/**
+	 * A word that can be formed from the pool, spelled with lowercase letters for the blanks it needs
+	 */
+	record Match(Word word, String letters, int blanks) {}
+
+	/**
+	 * Longer words first, then those needing fewer blanks, then alphabetical order
+	 */
+	static final Comparator<Match> BEST_FIRST = Comparator.comparingInt((Match match) -> -match.word().letters.length())
+			.thenComparingInt(Match::blanks)
+			.thenComparing(match -> match.word().letters);
+
+	private final AlphagramTrie dictionary;
+	private final int minLength;
+	private final int blankPenalty;
+
+	private final int[] pool = new int[26];		//tiles remaining in the pool
+	private final int[] blanks = new int[26];		//letters of the current path made from blanks
+	private int poolBlanks;
+	private int maxLength;
+	private boolean commonOnly;
+	private Visitor visitor;
+
+	/**
+	 *
+	 */
+	PoolSearch(AlphagramTrie dictionary, int minLength, int blankPenalty) {
+		this.dictionary = dictionary;
+		this.minLength = minLength;
+		this.blankPenalty = blankPenalty;
+	}
+
+	/**
+	 * Visits, in alphabetical order of their alphagrams, the nodes whose words can be formed from the given tiles,
+	 * until the visitor asks to stop.
+	 *
+	 * @param tiles the tiles in the pool, including wildcards (? tiles)
+	 * @param maxLength the length of the longest words to look for
+	 * @param commonOnly whether to skip the parts of the trie holding no words from the common subset
+	 */
+	void search(String tiles, int maxLength, boolean commonOnly, Visitor visitor) {
+		for(int letter = 0; letter < 26; letter++) {
+			pool[letter] = 0;
+			blanks[letter] = 0;
+		}
+		poolBlanks = 0;
+		int tileCount = 0;
+		for(int i = 0; i < tiles.length(); i++) {
+			char c = tiles.charAt(i);
+			if(c >= 'A' && c <= 'Z') {
+				pool[c - 'A']++;
+				tileCount++;
+			}
+			else if(c == '?') {
+				poolBlanks++;
+			}
+		}
+		this.maxLength = maxLength;
+		this.commonOnly = commonOnly;
+		this.visitor = visitor;
+
+		search(AlphagramTrie.ROOT, 0, 0, 0, tileCount);
+		this.visitor = null;
+	}
+
+	/**
+	 * Finds the words that can be formed from the given tiles and ranks them with {@link #BEST_FIRST}.
+	 * <p>
+	 * When only the best few are wanted, they are kept in a heap with the worst of them on top. Once the heap
+	 * is full, a node whose words are shorter than that worst one, or as long but needing more blanks,
+	 * is passed over without its words being decoded, and a word is only spelled out with its blanks
+	 * if it makes it into the heap.
+	 *
+	 * @param limit the number of words to return, or 0 for all of them
+	 */
+	List<Match> findWords(String tiles, int limit) {
+		if(limit <= 0) {
+			ArrayList<Match> matches = new ArrayList<>();
+			search(tiles, Integer.MAX_VALUE, false, (node, blanks) -> {
+				int blanksUsed = countBlanks(blanks);
+				for(int w = dictionary.wordsStart(node); w < dictionary.wordsEnd(node); w++) {
+					Word word = dictionary.wordAt(w);
+					matches.add(new Match(word, withBlanks(word.letters, blanks), blanksUsed));
+				}
+				return true;
+			});
+			matches.sort(BEST_FIRST);
+			return matches;
+		}
+
+		PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+		search(tiles, Integer.MAX_VALUE, false, (node, blanks) -> {
+			int blanksUsed = countBlanks(blanks);
+			int start = dictionary.wordsStart(node);
+			if(best.size() == limit) {
+				//every word at a node has the same length and needs the same blanks
+				Match worst = best.peek();
+				int length = dictionary.lengthAt(start);
+				int worstLength = worst.word().letters.length();
+				if(length < worstLength || length == worstLength && blanksUsed > worst.blanks()) return true;
+			}
+			for(int w = start; w < dictionary.wordsEnd(node); w++) {
+				Word word = dictionary.wordAt(w);
+				if(best.size() == limit) {
+					if(compare(word, blanksUsed, best.peek()) >= 0) continue;
+					best.poll();
+				}
+				best.add(new Match(word, withBlanks(word.letters, blanks), blanksUsed));
+			}
+			return true;
+		});
+		ArrayList<Match> matches = new ArrayList<>(best);
+		matches.sort(BEST_FIRST);
+		return matches;
+	}
+
+	/**
+	 * Ranks a word that has not yet been spelled out with its blanks against a match, in the order of {@link #BEST_FIRST}
+	 */
+	private static int compare(Word word, int blanks, Match match) {
+		int byLength = Integer.compare(match.word().letters.length(), word.letters.length());
+		if(byLength != 0) return byLength;
+		int byBlanks = Integer.compare(blanks, match.blanks());
+		if(byBlanks != 0) return byBlanks;
+		return word.letters.compareTo(match.word().letters);
+	}
+
+	/**
+	 * @return the total number of blanks
+	 */
+	private static int countBlanks(int[] blanks) {
+		int count = 0;
+		for(int c : blanks) count += c;
+		return count;
+	}
+
+	/**
+	 * @return the given word with the last occurrences of the given letters in lowercase, to mark them as blanks
+	 */
+	static String withBlanks(String letters, int[] blanks) {
+		char[] word = letters.toCharArray();
+		int[] remaining = blanks.clone();
+		for(int i = word.length - 1; i >= 0; i--) {
+			int letter = word[i] - 'A';
+			if(letter >= 0 && letter < 26 && remaining[letter] > 0) {
+				remaining[letter]--;
+				word[i] = Character.toLowerCase(word[i]);
+			}
+		}
+		return new String(word);
+	}
+
+	/**
+	 * @param node the node reached by the letters taken so far
+	 * @param length the number of letters taken so far
+	 * @param blanksUsed how many of them came from blanks
+	 * @param firstLetter the earliest letter that can follow them in an alphagram
+	 * @param tilesLeft the number of tiles left in the pool from firstLetter on
+	 * @return whether to continue the search
+	 */
+	private boolean search(int node, int length, int blanksUsed, int firstLetter, int tilesLeft) {
+		if(commonOnly && !dictionary.hasCommon(node)) return true;
+
+		if(length >= minLength + blanksUsed * (blankPenalty + 1) && dictionary.wordsStart(node) < dictionary.wordsEnd(node)) {
+			if(!visitor.visit(node, blanks)) return false;
+		}
+		if(length == maxLength) return true;
+
+		int child = dictionary.firstChild(node);
+		int skipped = firstLetter;	//the tiles of the letters before the child's are no longer usable
+		for(int mask = dictionary.childMask(node); mask != 0; mask &= mask - 1, child++) {
+			int letter = Integer.numberOfTrailingZeros(mask);
+			for(; skipped < letter; skipped++) {
+				tilesLeft -= pool[skipped];
+			}
+			boolean fromPool = pool[letter] > 0;
+			if(!fromPool && blanksUsed == poolBlanks) continue;
+
+			int nextBlanks = blanksUsed + (fromPool ? 0 : 1);
+			int nextTilesLeft = tilesLeft - (fromPool ? 1 : 0);
+			if(length + 1 + nextTilesLeft < minLength + nextBlanks * (blankPenalty + 1)) continue;
+
+			if(fromPool) pool[letter]--;
+			else blanks[letter]++;
+			boolean keepGoing = search(child, length + 1, nextBlanks, letter, nextTilesLeft);
+			if(fromPool) pool[letter]++;
+			else blanks[letter]--;
+			if(!keepGoing) return false;
+		}
+		return true;
+	}
+}
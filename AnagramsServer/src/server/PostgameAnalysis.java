@@ -0,0 +1,112 @@
+package server;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Works out the plays that could have been made at every position of a finished game, so that players
+ * looking back through the game find the plays ready rather than waiting for them to be computed.
+ * <p>
+ * The positions are analyzed in order, a few at a time, on a pool shared by all games. A position that someone
+ * asks for before its turn is analyzed straight away, and each result is kept as the encoded message,
+ * ready to be sent to any number of clients.
+ */
+class PostgameAnalysis {
+
+	private static final int TASKS = 2;	//the number of positions of one game being analyzed at once
+
+	private final String gameID;
+	private final int minLength;
+	private final int blankPenalty;
+	private final AlphagramTrie dictionary;
+	private final GameLog gameLog;
+	private final ExecutorService pool;
+
+	private final CompletableFuture<ByteBuffer>[] results;
+	private final AtomicIntegerArray claimed;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Starts analyzing the positions of the given log. Each position is recovered from the log only when it is
+	 * analyzed, so the board at every position is not kept in memory for as long as the game is.
+	 *
+	 * @param gameLog the log of the finished game, which no longer changes
+	 */
+	@SuppressWarnings("unchecked")
+	PostgameAnalysis(String gameID, int minLength, int blankPenalty, AlphagramTrie dictionary, GameLog gameLog, ExecutorService pool) {
+		this.gameID = gameID;
+		this.minLength = minLength;
+		this.blankPenalty = blankPenalty;
+		this.dictionary = dictionary;
+		this.gameLog = gameLog;
+		this.pool = pool;
+
+		results = (CompletableFuture<ByteBuffer>[]) new CompletableFuture<?>[gameLog.size()];
+		for(int p = 0; p < results.length; p++) {
+			results[p] = new CompletableFuture<>();
+		}
+		claimed = new AtomicIntegerArray(results.length);
+
+		for(int t = 0; t < TASKS; t++) {
+			pool.execute(this::analyzeNext);
+		}
+	}
+
+	/**
+	 * @return the "plays" message for the given position, once it has been analyzed
+	 */
+	CompletableFuture<ByteBuffer> getPlays(int position) {
+		if(position < 0 || position >= results.length) {
+			return CompletableFuture.failedFuture(new IndexOutOfBoundsException("Position " + position + " out of range for game " + gameID));
+		}
+		//rather than wait for its turn, the position goes straight into the pool
+		if(claimed.compareAndSet(position, 0, 1)) {
+			pool.execute(() -> analyze(position));
+		}
+		return results[position];
+	}
+
+	/**
+	 * Stops analyzing positions that have not been started
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Analyzes the earliest position that has not been started, then hands the thread back to the pool
+	 * so that requested positions and other games need not wait for this one to be finished.
+	 */
+	private void analyzeNext() {
+		while(!cancelled) {
+			int position = next.getAndIncrement();
+			if(position >= results.length) return;
+			if(claimed.compareAndSet(position, 0, 1)) {
+				analyze(position);
+				pool.execute(this::analyzeNext);
+				return;
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void analyze(int position) {
+		try {
+			JSONObject plays = new WordFinder(minLength, blankPenalty, dictionary).findWords(gameLog.getPosition(position));
+			results[position].complete(ServerWorker.encode("plays", new JSONObject()
+				.put("gameID", gameID)
+				.put("data", plays)));
+		}
+		catch(RuntimeException e) {
+			results[position].completeExceptionally(e);
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package server;
 
 import java.util.*;
-import java.util.prefs.Preferences;
 
 /**
 * An artificial intelligence that uses wordTrees to find words and make steals
@@ -14,17 +13,12 @@ class Robot extends Player {
 	private final static String[] NAMES = {"Robot-Novice", "Robot-Player", "Robot-Expert", "Robot-Genius"};
 	private final int blankPenalty;
 	private final int minLength;
-	private final int rating;
+	private volatile int rating;
 	private final int MAX_LENGTH = 15; //The longest word this bot can play
-	final HashMap<String, WordTree> trees = new HashMap<>();
-	private final HashMap<String, WordTree> commonTrees = new HashMap<>();
+	private final HashMap<String, WordTree> trees = new HashMap<>();
 	private final AlphagramTrie dictionary;
 	final private Random rgen = new Random();
-	private boolean wordFound = false;
-
-	private int blanksAvailable;
-
-	Preferences prefs;
+	private final PoolSearch poolSearch;
 
 	/**
 	*
@@ -32,11 +26,11 @@ class Robot extends Player {
 	Robot(Game game, int skillLevel, AlphagramTrie dictionary, int minLength, int blankPenalty) {
 		super(game, NAMES[skillLevel]);
 
-		prefs = Preferences.userNodeForPackage(getClass()).node(name);
-		this.rating = prefs.getInt("rating", 1500);
+		this.rating = Integer.parseInt(UserStore.get(name, "rating", "1500"));
 		this.game = game;
 
 		this.dictionary = dictionary;
+		this.poolSearch = new PoolSearch(dictionary, minLength, blankPenalty);
 
 		this.minLength = minLength;
 		this.blankPenalty = blankPenalty;
@@ -56,7 +50,15 @@ class Robot extends Player {
 	 */
 	@Override
 	void updateRating(int newRating) {
-		prefs.putInt("rating", newRating);
+		rating = newRating;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	void saveRating() {
+		UserStore.put(name, "rating", String.valueOf(rating));
 	}
 
 	/**
@@ -79,14 +81,11 @@ class Robot extends Player {
 
 		String tilePool = game.tilePool;
 
-		blanksAvailable = tilePool.length() - tilePool.replace("?", "").length();
-
 		if (tilePool.length() >= 2 * minLength || rgen.nextInt(2) == 0 && tilePool.length() >= minLength + 1) {
 
 			//decide whether to search among all words or among common subset
-			Node rootNode = skillLevel > rgen.nextInt(3) ? dictionary.rootNode : dictionary.common.rootNode;
-			wordFound = false;
-			searchInPool(rootNode, "", Utils.alphabetize(tilePool.replace("?", "")), 0);
+			boolean commonOnly = skillLevel <= rgen.nextInt(3);
+			searchInPool(commonOnly);
 		}
 		else {
 			searchForSteal();
@@ -94,50 +93,29 @@ class Robot extends Player {
 	}
 
 	/**
-	 * Recursively searches for a word that can be formed from the letters in the pool.
-	 * If a node is discovered containing one or more anagrams, one is chosen at random,
-	 * and the method halts.
+	 * Searches for a word that can be formed from the letters in the pool.
+	 * As soon as a node is discovered containing one or more anagrams, one is chosen at random,
+	 * and the search halts.
 	 *
-	 * @param node				The node being searched
-	 * @param charsFound 		chars found so far (the 'address' of the current node)
-	 * @param poolRemaining 	chars left in the pool from which to form a word
-	 * @param blanksRequired 	Blanks needed to make this word
+	 * @param commonOnly		Whether to consider only words in the common subset
 	 */
-	private void searchInPool(Node node, String charsFound, String poolRemaining, int blanksRequired) {
-		if(wordFound || charsFound.length() >= MAX_LENGTH) return;
-		if(charsFound.length() >= minLength + blanksRequired*(blankPenalty+1)) {
-			if(!node.words.isEmpty()) {
-				int num = rgen.nextInt(node.words.size());
-				for(Word anagram : node.words) {
-					if (--num < 0) {
-						wordFound = true;
-						game.doMakeWord(name, anagram.letters);
-						return;
-					}
-				}
+	private void searchInPool(boolean commonOnly) {
+		poolSearch.search(game.tilePool, MAX_LENGTH, commonOnly, (node, blanks) -> {
+			int numWords = 0;
+			for(int w = dictionary.wordsStart(node); w < dictionary.wordsEnd(node); w++) {
+				if(!commonOnly || dictionary.isCommon(w)) numWords++;
 			}
-		}
+			if(numWords == 0) return true;
 
-		for (int i = 0; i < poolRemaining.length(); i++) {
-			char nextChar = poolRemaining.charAt(i);
-			if (node.children.containsKey(nextChar)) {
-				if (charsFound.length() + 1 + poolRemaining.length() - (i + 1) >= blanksRequired * (blankPenalty + 1) + minLength) {
-					searchInPool(node.children.get(nextChar), charsFound + nextChar, poolRemaining.substring(i + 1), blanksRequired);
+			int num = rgen.nextInt(numWords);
+			for(int w = dictionary.wordsStart(node); w < dictionary.wordsEnd(node); w++) {
+				if((!commonOnly || dictionary.isCommon(w)) && --num < 0) {
+					game.doMakeWord(name, dictionary.wordAt(w).letters);
+					break;
 				}
 			}
-
-			if (blanksAvailable >= blanksRequired + 1 && charsFound.length() + 1 + poolRemaining.length() - i >= (blanksRequired + 1) * (blankPenalty + 1) + minLength) {
-				for (Map.Entry<Character, Node> child : node.children.headMap(nextChar).entrySet()) {
-					searchInPool(child.getValue(), charsFound + child.getKey(), poolRemaining.substring(i), blanksRequired + 1);
-				}
-			}
-		}
-
-		if (blanksAvailable >= (blanksRequired + 1) && charsFound.length() + 1 >= (blanksRequired + 1) * (blankPenalty + 1) + minLength) {
-			for (Map.Entry<Character, Node> child : node.children.entrySet()) {
-				searchInPool(child.getValue(), charsFound + child.getKey(), "", blanksRequired + 1);
-			}
-		}
+			return false;
+		});
 	}
 
 
@@ -145,8 +123,7 @@ class Robot extends Player {
 	*
 	*/
 	void makeTree(String shortWord) {
-		trees.put(shortWord, new WordTree(shortWord.replaceAll("[a-z]",""), dictionary));
-		commonTrees.put(shortWord, new WordTree(shortWord.replaceAll("[a-z]",""), dictionary.common));
+		trees.put(shortWord, TreeCache.get(shortWord.replaceAll("[a-z]",""), dictionary));
 	}
 	
 	/**
@@ -154,7 +131,6 @@ class Robot extends Player {
 	*/
 	void removeTree(String stolenWord) {
 		trees.remove(stolenWord);
-		commonTrees.remove(stolenWord);
 	}
 
 	/**
@@ -163,18 +139,27 @@ class Robot extends Player {
 	 */
 	private void searchForSteal() {
 
+		LetterCounts pool = LetterCounts.of(game.tilePool);
+		int poolBlanks = game.tilePool.length() - game.tilePool.replace("?", "").length();
+
 		List<Player> players = new ArrayList<>(game.players.values());
 		Collections.shuffle(players);
 		for(Player player : players) {
 			for(String shortWord : player.words) {
 
-				//decide whether to search among all words or among common subset
-				HashMap<String, WordTree> treeSet = skillLevel > rgen.nextInt(3) ? trees : commonTrees;
+				WordTree tree = trees.get(shortWord);
+				if(tree != null) {
+					LetterCounts fixed = LetterCounts.of(shortWord);
+					int blanks = poolBlanks + shortWord.length() - shortWord.replaceAll("[a-z]", "").length();
 
-				if(treeSet.containsKey(shortWord)) {
-					for(TreeNode child : treeSet.get(shortWord).rootNode.getChildren()) {
+					//decide whether to search among all words or among common subset
+					if(skillLevel <= rgen.nextInt(3)) {
+						tree = TreeCache.getCommon(shortWord.replaceAll("[a-z]",""), dictionary);
+					}
+					for(TreeNode child : tree.rootNode.getChildren()) {
 						String longWord = child.getWord().letters;
-						if(longWord.length() <= MAX_LENGTH) {
+						//skip words that need more letters than the pool and blanks can supply
+						if(longWord.length() <= MAX_LENGTH && child.getWord().counts.minus(fixed).minus(pool).size() <= blanks) {
 							if (game.doSteal(player.name, shortWord, name, longWord)) {
 								return;
 							}
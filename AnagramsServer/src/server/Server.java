@@ -2,13 +2,23 @@ package server;
 
 import com.sun.net.httpserver.*;
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -18,6 +28,7 @@ class Server extends Thread {
 	private static final int LOOKUP_PORT = 8116;
 	private static final int ADMIN_PORT = 8117;
 	private static final int GAME_PORT = 8118;
+	static final Path LOCAL_SOCKET = Paths.get(System.getProperty("java.io.tmpdir"), "anagrams.sock");
 
 
 	private static final String[] lexicons = {"NWL23", "CSW24"};
@@ -28,8 +39,25 @@ class Server extends Thread {
 	private final ConcurrentHashMap<String, Game> gameList = new ConcurrentHashMap<>();
 	final ArrayDeque<String> announcements = new ArrayDeque<>();
 	final ConcurrentLinkedDeque<String> chatLog = new ConcurrentLinkedDeque<>();
-	private final ServerSocket serverSocket = new ServerSocket(GAME_PORT);
+	private final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+	private ServerSocketChannel localChannel;
+	private final Selector selector = Selector.open();
+	final ExecutorService commandExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	final ScheduledThreadPoolExecutor gameScheduler = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
 	private final HttpServer httpServer = HttpServer.create(new InetSocketAddress(LOOKUP_PORT), 0);
+	private final ExecutorService lookupExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	final ExecutorService analysisExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+	private static final long LOBBY_SNAPSHOT_INTERVAL = 1000;
+	private final Object lobbyLock = new Object();
+	private ByteBuffer lobbySnapshot;
+	private long lobbySnapshotTime;
+	private final ArrayList<Broadcast> lobbyBacklog = new ArrayList<>();
+
+	/**
+	 * A message sent to the lobby since the lobbySnapshot was taken
+	 */
+	private record Broadcast(String cmd, String name, ByteBuffer message) {}
 
 	/**
 	*
@@ -50,7 +78,6 @@ class Server extends Thread {
 
 		for(String lexicon : lexicons) {
 			dictionaries.put(lexicon, new AlphagramTrie(lexicon));
-			getDictionary(lexicon).common(); //generate the common subset
 		}
 
 		try {
@@ -77,9 +104,21 @@ class Server extends Thread {
 			ioexception.printStackTrace();
 		}
 
-		httpServer.createContext("/CSW24/", this::handleRequest);
-		httpServer.createContext("/NWL23/", this::handleRequest);
+		System.out.println(UserStore.size() + " users loaded");
 
+		//at shutdown, the messages already posted to games are carried out but their timers are not
+		gameScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+		serverChannel.bind(new InetSocketAddress(GAME_PORT));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		openLocalChannel();
+
+		LookupService lookupService = new LookupService(this);
+		for(String lexicon : lexicons) {
+			httpServer.createContext("/" + lexicon + "/", lookupService);
+		}
+		httpServer.setExecutor(lookupExecutor);
 		httpServer.start();
 		System.out.println("Lookup service started on port 8116");
 
@@ -130,8 +169,10 @@ class Server extends Thread {
 		workerList.remove(username);
 
 		for(Game game : gameList.values()) {
-			game.removePlayer(username);
-			game.removeWatcher(username);
+			game.post(() -> {
+				game.removePlayer(username);
+				game.removeWatcher(username);
+			});
 		}
 
 		broadcast("logoffplayer", new JSONObject().put("name", username));
@@ -186,6 +227,17 @@ class Server extends Thread {
 		return dictionaries.get(lexicon);
 	}
 
+	/**
+	 * Records a chat message and sends it to everyone. Both happen under the lobbyLock so that
+	 * a client logging in receives the message exactly once.
+	 */
+	void chat(JSONObject json) {
+		synchronized(lobbyLock) {
+			logChat(json.getString("msg"));
+			broadcast("chat", json);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -197,56 +249,195 @@ class Server extends Thread {
 	}
 
 	/**
-	 * Helper method for broadcast(JSONObject json)
+	 * Sends a message to every connected client. The message is encoded once and the same bytes are queued for each client.
 	 */
 	void broadcast(String cmd, JSONObject json) {
-	//	synchronized(workerList) {
+		ByteBuffer message = ServerWorker.encode(cmd, json);
+		synchronized(lobbyLock) {
+			recordBroadcast(cmd, json, message);
 			for(ServerWorker worker : workerList.values()) {
-				worker.send(cmd, json);
+				worker.send(cmd, message);
 			}
-	//	}
+		}
 	}
 
 	/**
-	*
-	*/
+	 * Sends a message to every connected client who is neither playing in nor watching the given game.
+	 */
+	void notifyLobby(String cmd, JSONObject json, Game game) {
+		ByteBuffer message = ServerWorker.encode(cmd, json);
+		synchronized(lobbyLock) {
+			//notes are superseded soon enough; anything else must reach clients that log in later
+			if(!cmd.equals("note")) {
+				recordBroadcast(cmd, json, message);
+			}
+			workerList.forEach((username, worker) -> {
+				if(!game.inRoom(username)) {
+					worker.send(cmd, message);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds a message to the lobbyBacklog while the lobbySnapshot is still fresh enough to be shared. Once it has expired,
+	 * the snapshot and its backlog are dropped, since the next client to log in will be sent a new snapshot anyway.
+	 * Called only while holding the lobbyLock.
+	 */
+	private void recordBroadcast(String cmd, JSONObject json, ByteBuffer message) {
+		if(lobbySnapshot == null) return;
+		if(System.currentTimeMillis() - lobbySnapshotTime >= LOBBY_SNAPSHOT_INTERVAL) {
+			lobbySnapshot = null;
+			lobbyBacklog.clear();
+			return;
+		}
+		lobbyBacklog.add(new Broadcast(cmd, json.optString("name"), message));
+	}
+
+	/**
+	 * Sends the state of the lobby to a client that has just logged in, then adds the client to the
+	 * workerList so that it receives everything broadcast from then on.
+	 * <p>
+	 * The same lobbysnapshot message is shared by everyone who logs in within LOBBY_SNAPSHOT_INTERVAL of it being
+	 * taken. Whatever has been broadcast since it was taken is sent after it, so a new client misses nothing.
+	 */
+	void joinLobby(String username, ServerWorker worker) {
+		synchronized(lobbyLock) {
+			long now = System.currentTimeMillis();
+			if(lobbySnapshot == null || now - lobbySnapshotTime >= LOBBY_SNAPSHOT_INTERVAL) {
+				lobbySnapshot = ServerWorker.encode("lobbysnapshot", getLobbySnapshot());
+				lobbySnapshotTime = now;
+				lobbyBacklog.clear();
+			}
+			worker.send("lobbysnapshot", lobbySnapshot);
+			for(Broadcast broadcast : lobbyBacklog) {
+				//a previous session's logoff must not log off the new one
+				if(!(broadcast.cmd().equals("logoffplayer") && broadcast.name().equals(username))) {
+					worker.send(broadcast.cmd(), broadcast.message());
+				}
+			}
+			addWorker(username, worker);
+		}
+	}
+
+	/**
+	 * @return the chat history, the users logged in, and the games in progress with their players and status
+	 */
+	private JSONObject getLobbySnapshot() {
+		JSONArray chat = new JSONArray();
+		announcements.forEach(chat::put);
+		chatLog.forEach(chat::put);
+
+		JSONArray users = new JSONArray();
+		for(ServerWorker worker : workerList.values()) {
+			users.put(worker.getPublicData());
+		}
+
+		JSONArray games = new JSONArray();
+		for(Game game : gameList.values()) {
+			JSONArray players = new JSONArray();
+			for(Player player : game.players.values()) {
+				players.put(new JSONObject()
+					.put("name", player.name)
+					.put("rating", String.valueOf(player.getRating())));
+			}
+			JSONObject summary = new JSONObject()
+				.put("params", game.params)
+				.put("players", players)
+				.put("gameOver", game.gameOver);
+			if(!game.gameOver) {
+				if(game.paused)
+					summary.put("note", "Game paused");
+				else if(game.timeRemaining > 0)
+					summary.put("note", "Time remaining: " + game.timeRemaining);
+			}
+			games.put(summary);
+		}
+
+		return new JSONObject()
+			.put("chat", chat)
+			.put("users", users)
+			.put("games", games);
+	}
+
+	/**
+	 * Services every client connection from this one thread: accepts new connections and hands
+	 * readable and writable sockets to their workers. Commands themselves are carried out on the commandExecutor.
+	 */
 	@Override
 	public void run() {
-		while(!serverSocket.isClosed()) {
+		System.out.println("Ready to accept client connections on port " + GAME_PORT);
+		while(serverChannel.isOpen()) {
 			try {
-				System.out.println("Ready to accept client connections on port " + GAME_PORT);
-				Socket clientSocket = serverSocket.accept();
-				System.out.println("Accepted connection from " + clientSocket);
-				new Thread(new ServerWorker(this, clientSocket)).start();
-			} catch(IOException e) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if(key.isAcceptable()) {
+							accept((ServerSocketChannel)key.channel());
+						}
+						else {
+							ServerWorker worker = (ServerWorker)key.attachment();
+							if(key.isReadable()) {
+								worker.read();
+							}
+							if(key.isValid() && key.isWritable()) {
+								worker.write();
+							}
+						}
+					}
+					catch(CancelledKeyException e) {
+						//the connection was closed by another thread
+					}
+				}
+			}
+			catch(ClosedSelectorException e) {
+				break;
+			}
+			catch(IOException e) {
 				System.out.println("server socket closed");
 			}
-        }
+		}
 	}
 
 	/**
-	 *
+	 * Listens for clients on the same host, such as the web client, on a Unix domain socket. These connections
+	 * skip the TCP/IP stack entirely but are otherwise handled exactly like those on the GAME_PORT.
+	 * If the platform does not support Unix domain sockets, clients simply connect over TCP instead.
 	 */
-	private void handleRequest(final HttpExchange exchange) throws IOException {
-
-		String lexicon = exchange.getRequestURI().getPath().split("/")[1].toUpperCase();
-		String query = exchange.getRequestURI().getPath().split("/")[2]/*.toUpperCase()*/;
-		System.out.println("lexicon: " + lexicon +", query: " + query);
-		WordTree tree = new WordTree(query, getDictionary(lexicon));
-		tree.generateJSON(tree.rootNode.getWord().letters, tree.rootNode, 1);
-		final String json = tree.jsonArray.toString();
-
-		byte[] bytes = json.getBytes();
-		exchange.getResponseHeaders().add("Content-type", "application/json");
-		exchange.getResponseHeaders().add("Content-length", Integer.toString(bytes.length));
-		exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
-		exchange.getResponseBody().write(bytes);
-		exchange.sendResponseHeaders(200, json.getBytes().length);
-		try(OutputStream os = exchange.getResponseBody()) {
-			os.write(bytes);
-			os.flush();
+	private void openLocalChannel() {
+		try {
+			Files.deleteIfExists(LOCAL_SOCKET);	//left over from a server that did not shut down cleanly
+			localChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			localChannel.bind(UnixDomainSocketAddress.of(LOCAL_SOCKET));
+			localChannel.configureBlocking(false);
+			localChannel.register(selector, SelectionKey.OP_ACCEPT);
+			System.out.println("Accepting local connections at " + LOCAL_SOCKET);
+		}
+		catch(IOException | UnsupportedOperationException e) {
+			System.out.println("Local connections unavailable: " + e.getMessage());
+			localChannel = null;
 		}
-		exchange.close();
+	}
+
+	/**
+	 * Accepts a pending connection and registers it with the selector
+	 */
+	private void accept(ServerSocketChannel listener) throws IOException {
+		SocketChannel clientChannel = listener.accept();
+		if(clientChannel == null) return;
+		clientChannel.configureBlocking(false);
+		if(listener == serverChannel) {
+			System.out.println("Accepted connection from " + clientChannel.getRemoteAddress());
+			clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
+		else {
+			System.out.println("Accepted local connection");
+		}
+		ServerWorker worker = new ServerWorker(this, clientChannel);
+		worker.setKey(clientChannel.register(selector, SelectionKey.OP_READ, worker));
 	}
 
 	/**
@@ -263,12 +454,32 @@ class Server extends Thread {
 			}
 			System.out.println("chat file saved");
 			writer.close();
-			interrupt();
-			serverSocket.close();
+
+			//give the selector a moment to deliver the logoff messages
+			long deadline = System.currentTimeMillis() + 1000;
+			while(System.currentTimeMillis() < deadline && !getWorkers().stream().allMatch(ServerWorker::isFlushed)) {
+				Thread.sleep(50);
+			}
+
+			serverChannel.close();
+			if(localChannel != null) {
+				localChannel.close();
+				Files.deleteIfExists(LOCAL_SOCKET);
+			}
+			selector.close();
+			commandExecutor.shutdown();
+			commandExecutor.awaitTermination(5, TimeUnit.SECONDS);
+			gameScheduler.shutdown();
+			gameScheduler.awaitTermination(5, TimeUnit.SECONDS);
 			httpServer.stop(1);
+			lookupExecutor.shutdown();
+			analysisExecutor.shutdown();
+			analysisExecutor.awaitTermination(5, TimeUnit.SECONDS);
+			//every change to a user made before now is on disk once this returns
+			UserStore.close();
 
 
-		} catch (IOException e) {
+		} catch (IOException | InterruptedException e) {
 			e.printStackTrace();
 		}
 		finally {
@@ -3,12 +3,18 @@ package server;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.net.Socket;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.prefs.BackingStoreException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.prefs.Preferences;
 import javax.mail.*;
 import javax.mail.internet.InternetAddress;
@@ -17,17 +23,44 @@ import java.io.IOException;
 
 /**
 * Handles tasks for a client on the server side including communication between server and client.
+* <p>
+* The connection is non-blocking: the server's selector thread calls {@link #read()} and {@link #write()}
+* when the socket is ready, while the commands received are carried out one at a time, in order, on the
+* server's command executor. Reading stops while too many commands are waiting to be carried out or
+* while too much output is waiting to be sent, and resumes once the backlog has cleared.
+* <p>
+* Outgoing messages wait in a bounded outbox and are written several at a time with a single gathering write.
+* A client that falls behind first stops receiving "note" messages, which are superseded every second anyway,
+* and is disconnected if its outbox fills up entirely.
 */
-class ServerWorker implements Runnable {
-
-	private final Socket clientSocket;
+class ServerWorker {
+
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final int MAX_LINE_LENGTH = 1 << 20;
+	private static final int MAX_PENDING_COMMANDS = 32;
+	private static final int COMMANDS_PER_TURN = 16;
+	private static final int OUTBOX_LOW_WATER = 1 << 18;
+	private static final int OUTBOX_HIGH_WATER = 1 << 20;
+	private static final int OUTBOX_LIMIT = 1 << 22;
+	private static final int NOTE_DROP_THRESHOLD = 1 << 16;
+	private static final int MAX_BUFFERS_PER_WRITE = 64;
+
+	private final SocketChannel channel;
+	private SelectionKey key;
 	private String username;
 	final Server server;
-	private OutputStream outputStream;
-	private InputStream inputStream;
-	private BufferedReader reader;
 	private UserData prefs;
 
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final ArrayDeque<ByteBuffer> outbox = new ArrayDeque<>();
+	private int outboxBytes = 0;
+	private int notesDropped = 0;
+	private boolean readingPaused = false;
+	private final ConcurrentLinkedQueue<String> inbox = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingCommands = new AtomicInteger();
+	private final AtomicBoolean processing = new AtomicBoolean(false);
+	private volatile boolean closed = false;
+
 	private static final Properties props = new Properties() {{
 		put("mail.smtp.auth", "true");
 		put("mail.smtp.starttls.enable", "true");
@@ -49,28 +82,184 @@ class ServerWorker implements Runnable {
 	/**
 	*
 	*/
-	ServerWorker(Server server, Socket clientSocket) {
+	ServerWorker(Server server, SocketChannel channel) {
 		this.server = server;
-		this.clientSocket = clientSocket;
+		this.channel = channel;
 	}
-	
+
 	/**
-	*
-	*/
-	@Override
-	public void run() {
+	 * Called by the server once the channel has been registered with its selector
+	 */
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Reads whatever the client has sent and queues each complete line as a command.
+	 * Called only from the server's selector thread.
+	 */
+	void read() {
+		int bytesRead;
+		try {
+			bytesRead = channel.read(readBuffer);
+		}
+		catch (IOException e) {
+			bytesRead = -1;
+		}
+		if(bytesRead < 0) {
+			connectionLost();
+			return;
+		}
+
+		readBuffer.flip();
+		int lineStart = readBuffer.position();
+		for(int i = lineStart; i < readBuffer.limit(); i++) {
+			if(readBuffer.get(i) == '\n') {
+				int lineEnd = i > lineStart && readBuffer.get(i - 1) == '\r' ? i - 1 : i;
+				byte[] bytes = new byte[lineEnd - lineStart];
+				readBuffer.get(lineStart, bytes);
+				enqueueCommand(new String(bytes, StandardCharsets.UTF_8));
+				lineStart = i + 1;
+			}
+		}
+		readBuffer.position(lineStart);
+		readBuffer.compact();
+
+		if(!readBuffer.hasRemaining()) {
+			if(readBuffer.capacity() >= MAX_LINE_LENGTH) {
+				System.out.println("Line too long from " + username);
+				connectionLost();
+				return;
+			}
+			readBuffer = ByteBuffer.allocate(2 * readBuffer.capacity()).put(readBuffer.flip());
+		}
+
+		if(pendingCommands.get() >= MAX_PENDING_COMMANDS) {
+			pauseReading();
+		}
+	}
+
+	/**
+	 * Sends as much queued output as the socket will accept. Called only from the server's selector thread.
+	 */
+	void write() {
+		boolean failed = false;
+		synchronized(outbox) {
+			try {
+				while(!outbox.isEmpty()) {
+					//coalesce as many queued messages as possible into one write
+					ByteBuffer[] batch = new ByteBuffer[Math.min(outbox.size(), MAX_BUFFERS_PER_WRITE)];
+					Iterator<ByteBuffer> it = outbox.iterator();
+					long batchBytes = 0;
+					for(int i = 0; i < batch.length; i++) {
+						batch[i] = it.next();
+						batchBytes += batch[i].remaining();
+					}
+					long written = channel.write(batch);
+					outboxBytes -= (int)written;
+					while(!outbox.isEmpty() && !outbox.peek().hasRemaining()) {
+						outbox.poll();
+					}
+					if(written < batchBytes) {
+						break; //the socket is full; wait until it is writable again
+					}
+				}
+				if(outbox.isEmpty()) {
+					key.interestOpsAnd(~SelectionKey.OP_WRITE);
+				}
+			}
+			catch (IOException | CancelledKeyException e) {
+				failed = true;
+			}
+			if(readingPaused && outboxBytes < OUTBOX_LOW_WATER) {
+				resumeReading();
+			}
+		}
+		if(failed) {
+			System.out.println(username + " has unexpectedly disconnected");
+			connectionLost();
+		}
+	}
+
+	/**
+	 * Adds a line received from the client to the queue of commands and makes sure that someone is processing them.
+	 */
+	private void enqueueCommand(String line) {
+		inbox.add(line);
+		pendingCommands.incrementAndGet();
+		if(processing.compareAndSet(false, true)) {
+			server.commandExecutor.execute(this::processCommands);
+		}
+	}
 
-		while(!Thread.interrupted()) {
+	/**
+	 * Carries out queued commands in the order received. After a few commands the thread is handed
+	 * back to the executor so that one busy client cannot hold it indefinitely.
+	 */
+	private void processCommands() {
+		for(int i = 0; i < COMMANDS_PER_TURN && !closed; i++) {
+			String line = inbox.poll();
+			if(line == null) break;
 			try {
-				handleClientSocket();
+				handleCommand(line);
 			}
-			catch (IOException e) {
-				Thread.currentThread().interrupt();
-				System.out.println(username + " has disconnected.");
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+			if(pendingCommands.decrementAndGet() < MAX_PENDING_COMMANDS) {
+				resumeReading();
+			}
+		}
+		processing.set(false);
+		if(!inbox.isEmpty() && !closed && processing.compareAndSet(false, true)) {
+			server.commandExecutor.execute(this::processCommands);
+		}
+	}
+
+	/**
+	 * Stops reading from the client until its backlog has cleared
+	 */
+	private void pauseReading() {
+		synchronized(outbox) {
+			if(!readingPaused && key.isValid()) {
+				readingPaused = true;
+				try {
+					key.interestOpsAnd(~SelectionKey.OP_READ);
+				}
+				catch(CancelledKeyException cke) {
+					//the connection is being closed, so there is nothing left to pause
+				}
 			}
 		}
 	}
 
+	/**
+	 * Resumes reading from the client if neither its commands nor its output are backed up
+	 */
+	private void resumeReading() {
+		synchronized(outbox) {
+			if(readingPaused && key.isValid() && outboxBytes < OUTBOX_LOW_WATER && pendingCommands.get() < MAX_PENDING_COMMANDS) {
+				readingPaused = false;
+				try {
+					key.interestOpsOr(SelectionKey.OP_READ);
+					key.selector().wakeup();
+				}
+				catch(CancelledKeyException cke) {
+					//the connection is being closed, so there is nothing left to resume
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether all output has been handed to the socket
+	 */
+	boolean isFlushed() {
+		synchronized(outbox) {
+			return outbox.isEmpty();
+		}
+	}
+
     /**
      *
      * Checks whether the provided username is available and, if not, whether
@@ -79,15 +268,11 @@ class ServerWorker implements Runnable {
     private void checkUsername(String username) {
 		boolean inUse = server.getUsernames().contains(username);
 
-		try {
-			boolean registered = Preferences.userNodeForPackage(Server.class).nodeExists(username);
-			boolean available = !(inUse || registered);
-			send("availability", new JSONObject()
-					.put("available", available)
-					.put("registered", registered));
-		} catch (BackingStoreException e) {
-			throw new RuntimeException(e);
-		}
+		boolean registered = UserStore.exists(username);
+		boolean available = !(inUse || registered);
+		send("availability", new JSONObject()
+				.put("available", available)
+				.put("registered", registered));
     }
 
 	/**
@@ -96,17 +281,9 @@ class ServerWorker implements Runnable {
 	 */
 	void checkEmail(String email) {
 
-		Preferences prefs = Preferences.userNodeForPackage(Server.class);
-		try {
-			for (String user : prefs.childrenNames()) {
-				if (prefs.node(user).get("email", "").equals(email)) {
-					send("availability", new JSONObject().put("available", false));
-					return;
-				}
-			}
-		}
-		catch(BackingStoreException bse) {
-			bse.printStackTrace();
+		if(UserStore.findByEmail(email).isPresent()) {
+			send("availability", new JSONObject().put("available", false));
+			return;
 		}
 		send("availability", new JSONObject().put("available", true));
 		try(ExecutorService emailExecutor = Executors.newSingleThreadExecutor()) {
@@ -137,15 +314,14 @@ class ServerWorker implements Runnable {
 
 	/**
 	 * Check if the user has provided the correct registration code that was sent to their email.
-	 * If so, save username, password, and email to the prefs.xml file and log in.
+	 * If so, save username, password, and email to the user store and log in.
 	 */
 	private void register(JSONObject json) {
 		if(json.getString("code").equals(code)) {
 			String username = json.getString("username");
-			Preferences prefs = Preferences.userNodeForPackage(Server.class).node(username);
-
-			prefs.put("password", json.getString("password"));
-			prefs.put("email", json.getString("email"));
+			UserStore.put(username, Map.of(
+					"password", json.getString("password"),
+					"email", json.getString("email")));
 			handleLogin(json.getString("username"), false);
 		}
 		else {
@@ -158,9 +334,7 @@ class ServerWorker implements Runnable {
 	 */
 	private void checkPassword(String username, String password) {
 
-		Preferences prefs = Preferences.userNodeForPackage(Server.class).node(username);
-
-		if(password.equals(prefs.get("password", ""))) {
+		if(password.equals(UserStore.get(username, "password", ""))) {
 			send("password", new JSONObject().put("valid", true));
 		}
 		else {
@@ -173,49 +347,42 @@ class ServerWorker implements Runnable {
 	 * Provides the username/password associated with the given email address, if any.
 	 */
 	void recover(JSONObject json) {
-		Preferences prefs = Preferences.userNodeForPackage(Server.class);
 		String email = json.getString("email");
 		String type = json.getString("type");
-		try {
-			for (String user : prefs.childrenNames()) {
-				if (prefs.node(user).get("email", "").equals(email)) {
-					MimeMessage message = new MimeMessage(session);
-					try(ExecutorService emailExecutor = Executors.newSingleThreadExecutor()) {
-						message.setFrom(new InternetAddress(from));
-						message.addRecipient(Message.RecipientType.TO, new InternetAddress(email));
-						if(type.equals("password")) {
-							message.setSubject("Password recovery");
-							message.setText("Your password for Anagrams is " + new String(Base64.getDecoder().decode(prefs.node(user).get("password", ""))));
-						}
-						else {
-							message.setSubject("Username recovery");
-							message.setText("Your username for Anagrams is " + user);
-						}
-						send(type + "-recovery", new JSONObject().put("success", true));
+		Optional<String> user = UserStore.findByEmail(email);
+		if(user.isEmpty()) {
+			//email not found among registered accounts
+			send(type + "-recovery", new JSONObject().put("success", false));
+			return;
+		}
 
-						emailExecutor.execute(() -> {
-							try {
-								Transport.send(message);
-							} catch (MessagingException e) {
-								throw new RuntimeException(e);
-							}
+		MimeMessage message = new MimeMessage(session);
+		try(ExecutorService emailExecutor = Executors.newSingleThreadExecutor()) {
+			message.setFrom(new InternetAddress(from));
+			message.addRecipient(Message.RecipientType.TO, new InternetAddress(email));
+			if(type.equals("password")) {
+				message.setSubject("Password recovery");
+				message.setText("Your password for Anagrams is " + new String(Base64.getDecoder().decode(UserStore.get(user.get(), "password", ""))));
+			}
+			else {
+				message.setSubject("Username recovery");
+				message.setText("Your username for Anagrams is " + user.get());
+			}
+			send(type + "-recovery", new JSONObject().put("success", true));
 
-						});
-						emailExecutor.shutdown();
-						return;
-					}
-					catch(MessagingException mex) {
-						mex.printStackTrace();
-					}
+			emailExecutor.execute(() -> {
+				try {
+					Transport.send(message);
+				} catch (MessagingException e) {
+					throw new RuntimeException(e);
 				}
 
-			}
-			//email not found among registered accounts
-			send(type + "-recovery", new JSONObject().put("success", false));
+			});
+			emailExecutor.shutdown();
+		}
+		catch(MessagingException mex) {
+			mex.printStackTrace();
 		}
-		catch(BackingStoreException bse) {
-			bse.printStackTrace();
-			}
 	}
 
 	/**
@@ -240,48 +407,10 @@ class ServerWorker implements Runnable {
 		this.username = username;
 		System.out.println("User logged in successfully: " + username);
 
-		for (String s : server.announcements) {
-			send("chat", new JSONObject().put("msg", s));
-		}
-
-		for (String s : server.chatLog) {
-			send("chat", new JSONObject().put("msg", s));
-		}
-
-		for (ServerWorker worker : server.getWorkers()) {
-			send("userdata", worker.getPublicData());
-		}
-
-		//notify new player of games
-		synchronized (server.getGames()) {
-			for(Game game : server.getGames()) {
-				send("addgame", game.params);
-				for(String playerName : game.players.keySet()) {
-					send("takeseat", new JSONObject()
-						.put("gameID", game.gameID)
-						.put("name", playerName)
-						.put("rating", game.players.get(playerName).getRating() + ""));
-				}
-				if(game.gameOver) {
-					send("endgame", new JSONObject().put("gameID", game.gameID).put("gamelog", game.gameLog));
-				}
-				else {
-					for(Player player : game.players.values()) {
-						if(player.abandoned)
-							send("abandonseat", new JSONObject().put("gameID", game.gameID).put("name", player.name));
-					}
-					if(game.paused) {
-						send("note", new JSONObject().put("gameID", game.gameID).put("msg", "Game paused"));
-					}
-					else if(game.timeRemaining > 0) {
-						send("note", new JSONObject().put("gameID", game.gameID).put("msg", "Time remaining: " + game.timeRemaining));
-					}
-				}
-			}
-		}
+		//notify new player of the chat, players and games in the lobby
+		server.joinLobby(username, this);
 
 		//notify other players of the new player
-		server.addWorker(username, this);
 		server.broadcast("userdata", prefs.getPublicData());
 	}
 
@@ -302,11 +431,22 @@ class ServerWorker implements Runnable {
 	/**
 	*
 	*/
-	private void handleLogoff() throws IOException {
+	private void handleLogoff() {
 		disconnect();
 		server.logoffPlayer(username);
 	}
 
+	/**
+	 * Cleans up after a client that has gone away without logging off
+	 */
+	private void connectionLost() {
+		if(closed) return;
+		disconnect();
+		if(username != null) {
+			server.commandExecutor.execute(() -> server.logoffPlayer(username));
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -317,13 +457,26 @@ class ServerWorker implements Runnable {
 	/**
 	 *
 	 */
-	private void disconnect() throws IOException {
-		reader.close();
-		clientSocket.close();
+	private void disconnect() {
+		//under the outbox lock, so that send never touches the key after it has been cancelled
+		synchronized(outbox) {
+			if(closed) return;
+			closed = true;
+			key.cancel();
+			outbox.clear();
+			outboxBytes = 0;
+		}
+		if(notesDropped > 0) {
+			System.out.println(notesDropped + " notes were dropped for " + username);
+		}
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
 
 		System.out.println(username + " has disconnected");
-
-		Thread.currentThread().interrupt();
 	}
 
 	/**
@@ -332,91 +485,89 @@ class ServerWorker implements Runnable {
 	private void handleCreateGame(JSONObject params) {
 		server.broadcast("addgame", params);
 		Game newGame = new Game(server, params);
-		newGame.addPlayer(new Player(newGame, username, prefs));
+		newGame.post(() -> newGame.addPlayer(new Player(newGame, username, prefs)));
 		server.addGame(newGame.gameID, newGame);
 	}
 
 
 	/**
-	 * Listens for commands from this worker's client and responds appropriately.
+	 * Responds appropriately to a command from this worker's client.
 	 */
-	private void handleClientSocket() throws IOException {
+	private void handleCommand(String line) {
 
-		inputStream = clientSocket.getInputStream();
-		this.outputStream = clientSocket.getOutputStream();
-		reader = new BufferedReader(new InputStreamReader(inputStream));
+		System.out.println("command received: " + line);
+		JSONObject json;
+		String cmd;
+		try {
+			json = new JSONObject(line);
+			cmd = json.getString("cmd");
+		}
+		catch(JSONException je) {
+			System.out.println("Malformed JSON expression: " + je);
+			return;
+		}
 
-		String line;
-		while((line = reader.readLine()) != null) {
-			System.out.println("command received: " + line);
-			JSONObject json;
-			String cmd;
-			try {
-				json = new JSONObject(line);
-				cmd = json.getString("cmd");
+		switch (cmd) {
+			case "chat" -> server.chat(json);
+			case "delete" -> deleteAccount();
+			case "email" -> checkEmail(json.getString("email"));
+			case "forgot" -> recover(json);
+			case "login" -> handleLogin(json.getString("name"), json.getBoolean("guest"));
+			case "logoff" -> handleLogoff();
+			case "newgame" -> handleCreateGame(json.getJSONObject("params"));
+			case "password" -> checkPassword(json.getString("name"), json.getString("password"));
+			case "register" -> register(json);
+			case "username" -> checkUsername(json.getString("username"));
+			case "lookup" -> {
+				WordTree tree = TreeCache.get(json.getString("query"), server.getDictionary(json.getString("lexicon")));
+				send("tree", new JSONObject().put("data", tree.generateJSON(tree.rootWord + tree.rootNode.getWord().suffix)));
 			}
-			catch(JSONException je) {
-				System.out.println("Malformed JSON expression: " + je);
-				continue;
+			case "updateprefs" -> prefs.update(json);
+			case "updateprofile" -> {
+				prefs.setProfile(json.getString("profile"));
+				server.broadcast("userdata", getPublicData());
 			}
 
-			switch (cmd) {
-				case "chat" -> {
-					server.logChat(json.getString("msg"));
-					server.broadcast("chat", json);
-				}
-				case "delete" -> deleteAccount();
-				case "email" -> checkEmail(json.getString("email"));
-				case "forgot" -> recover(json);
-				case "login" -> handleLogin(json.getString("name"), json.getBoolean("guest"));
-				case "logoff" -> handleLogoff();
-				case "newgame" -> handleCreateGame(json.getJSONObject("params"));
-				case "password" -> checkPassword(json.getString("name"), json.getString("password"));
-				case "register" -> register(json);
-				case "username" -> checkUsername(json.getString("username"));
-				case "lookup" -> {
-					WordTree tree = new WordTree(json.getString("query"), server.getDictionary(json.getString("lexicon")));
-					tree.generateJSON(tree.rootWord + tree.rootNode.getWord().suffix, tree.rootNode, 1);
-					send("tree", new JSONObject().put("data", tree.jsonArray));
+			//game-related commands
+			default -> {
+				String gameID = json.optString("gameID");
+				if(gameID.isEmpty()) {
+					System.out.println("Error: command not recognized " + line);
+					break;
 				}
-				case "updateprefs" -> prefs.update(json);
-				case "updateprofile" -> {
-					prefs.setProfile(json.getString("profile"));
-					server.broadcast("userdata", getPublicData());
-				}
-
-				//game-related commands
-				default -> {
-					String gameID = json.optString("gameID");
-					if(gameID.isEmpty()) {
-						System.out.println("Error: command not recognized " + line);
-						break;
-					}
-					Game game = server.getGame(json.optString("gameID"));
-
-					if(game != null) {
-						switch (cmd) {
-							case "findplays" -> send("plays", game.findPlays(json.getInt("position")));
-							case "gamechat" -> game.notifyRoom("gamechat", json);
-							case "joingame" -> {
-								if (game.gameOver)
-									game.addWatcher(this);
-								else
-									game.addPlayer(new Player(game, username, prefs));
-							}
-							case "makeword" -> {
-								if (server.getDictionary(game.lexicon).contains(json.getString("word")))
-									game.doMakeWord(json.getString("player"), json.getString("word"));
-							}
-							case "steal" -> {
-								if (server.getDictionary(game.lexicon).contains(json.getString("longWord"))) {
-									game.doSteal(json.getString("shortPlayer"), json.getString("shortWord"), json.getString("longPlayer"), json.getString("longWord"));
-								}
+				Game game = server.getGame(json.optString("gameID"));
+
+				if(game != null) {
+					switch (cmd) {
+						case "findplays" -> game.findPlays(json.getInt("position")).whenComplete((message, e) -> {
+							if(e != null)
+								System.out.println("Could not find plays: " + e.getMessage());
+							else
+								send("plays", message);
+						});
+						case "gamechat" -> game.notifyRoom("gamechat", json);
+						case "gamelog" -> game.post(() -> {
+							if (game.gameOver)
+								send("gamelog", new JSONObject().put("gameID", game.gameID).put("gamelog", game.getCompressedLog()));
+						});
+						case "joingame" -> game.post(() -> {
+							if (game.gameOver)
+								game.addWatcher(this);
+							else
+								game.addPlayer(new Player(game, username, prefs));
+						});
+						case "makeword" -> {
+							if (server.getDictionary(game.lexicon).contains(json.getString("word")))
+								game.post(() -> game.doMakeWord(json.getString("player"), json.getString("word")));
+						}
+						case "steal" -> {
+							if (server.getDictionary(game.lexicon).contains(json.getString("longWord"))) {
+								game.post(() -> game.doSteal(json.getString("shortPlayer"), json.getString("shortWord"), json.getString("longPlayer"), json.getString("longWord")));
 							}
-							case "stopplaying" -> game.removePlayer(username);
-							case "stopwatching" -> game.removeWatcher(username);
-							case "watchgame" -> game.addWatcher(this);
 						}
+						case "stopplaying" -> game.post(() -> game.removePlayer(username));
+						case "stopwatching" -> game.post(() -> game.removeWatcher(username));
+						case "watchgame" -> game.post(() -> game.addWatcher(this));
 					}
 				}
 			}
@@ -424,27 +575,73 @@ class ServerWorker implements Runnable {
 	}
 
     /**
-	* Inform the user about events happening on the server
+	* Inform the user about events happening on the server. The message is queued and sent
+	* by the selector thread, so this never blocks on a slow connection.
 	*
 	* @param json The message to be sent.
 	*/
-	synchronized void send(String cmd, JSONObject json) {
+	void send(String cmd, JSONObject json) {
+		send(cmd, encode(cmd, json));
+	}
 
-		try {
-			outputStream.write((json.put("cmd", cmd) + "\n").getBytes());
-			outputStream.flush();
-		}
-		catch (IOException e) {
-			System.out.println(username + " has unexpectedly disconnected");
+	/**
+	* Queues a message that has already been encoded with {@link #encode(String, JSONObject)}.
+	* The same message may be handed to any number of workers; each one sends its own view of the bytes.
+	*
+	* @param message The encoded message, which is not modified.
+	*/
+	void send(String cmd, ByteBuffer message) {
+
+		ByteBuffer buffer = message.duplicate();
+		synchronized(outbox) {
+			if(closed) return;
+
+			//a client that is behind will receive a fresher note soon enough
+			if(cmd.equals("note") && outboxBytes > NOTE_DROP_THRESHOLD) {
+				notesDropped++;
+				return;
+			}
+
+			if(outboxBytes + buffer.remaining() > OUTBOX_LIMIT) {
+				System.out.println("Disconnecting " + username + " because it is not keeping up with its messages");
+				connectionLost();
+				return;
+			}
+
+			outbox.add(buffer);
+			outboxBytes += buffer.remaining();
+			//a broadcast to every client must not be cut short by one whose socket is dying
 			try {
-				if(username == null)
-					disconnect();
-				else
-					handleLogoff();
+				if(outbox.size() == 1) {
+					key.interestOpsOr(SelectionKey.OP_WRITE);
+					key.selector().wakeup();
+				}
+				if(outboxBytes > OUTBOX_HIGH_WATER && !readingPaused) {
+					readingPaused = true;
+					key.interestOpsAnd(~SelectionKey.OP_READ);
+				}
 			}
-			catch (IOException e2) {
-				e2.printStackTrace();
+			catch(CancelledKeyException cke) {
+				connectionLost();
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	* Encodes a message as a single line of UTF-8 JSON with the given cmd field, without modifying
+	* the JSONObject, so that it can be serialized once and sent to many clients.
+	*
+	* @return a read-only buffer holding the encoded line
+	*/
+	static ByteBuffer encode(String cmd, JSONObject json) {
+		String line;
+		if(json.has("cmd")) {
+			line = new JSONObject(json, JSONObject.getNames(json)).put("cmd", cmd) + "\n";
+		}
+		else {
+			String body = json.toString();
+			line = "{\"cmd\":" + JSONObject.quote(cmd) + (json.isEmpty() ? "}" : "," + body.substring(1)) + "\n";
+		}
+		return ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,238 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Records, for every word in a lexicon, which other words of the lexicon are steals of it, so that
+ * a WordTree can be grown by following the recorded steals instead of searching the trie.
+ * <p>
+ * A word W is a steal of a shorter word U if W contains all the letters of U and cannot be formed by
+ * inserting letters into U without rearranging it. Only direct steals are recorded: if W is also a steal
+ * of some word that is itself a steal of U, the edge from U to W is left out, since the tree for any root
+ * containing U attaches W beneath the longer word anyway. Every steal remains reachable through the edges kept.
+ * The edges are stored in both directions, so that the words a given word can be stolen from are as easy to
+ * find as the words that steal it.
+ * <p>
+ * The graph is built ahead of time alongside the lexicon image (see {@link LexiconImage#main(String[])}) and
+ * memory-mapped at startup. Words are identified by their index in the image. The file consists of a header
+ * followed by these sections, in order:
+ * <pre>
+ *   int[wordCount + 1]     stealsStart     where each word's steals begin in the steals section
+ *   int[stealCount]        steals          the direct steals of each word, by increasing index
+ *   int[wordCount + 1]     sourcesStart    where each word's sources begin in the sources section
+ *   int[stealCount]        sources         the words of which each word is a direct steal, by increasing index
+ * </pre>
+ */
+class StealGraph {
+
+	static final String EXTENSION = ".steals";
+
+	static final int MAGIC = 0x414E5347; //"ANSG"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+
+	private final IntBuffer stealsStart;
+	private final IntBuffer steals;
+	private final IntBuffer sourcesStart;
+	private final IntBuffer sources;
+
+	/**
+	 * Divides an image of the graph into its sections.
+	 */
+	private StealGraph(ByteBuffer image) {
+		int wordCount = image.getInt(12);
+		int stealCount = image.getInt(16);
+
+		int position = HEADER_SIZE;
+		stealsStart = image.slice(position, 4 * (wordCount + 1)).asIntBuffer();
+		position += 4 * (wordCount + 1);
+		steals = image.slice(position, 4 * stealCount).asIntBuffer();
+		position += 4 * stealCount;
+		sourcesStart = image.slice(position, 4 * (wordCount + 1)).asIntBuffer();
+		position += 4 * (wordCount + 1);
+		sources = image.slice(position, 4 * stealCount).asIntBuffer();
+	}
+
+	/**
+	 * Memory-maps the steal graph of the given trie's lexicon from the lexicons directory.
+	 *
+	 * @return the graph, or null if it has not been built for this version of the lexicon
+	 */
+	static StealGraph load(AlphagramTrie trie) {
+		Path path = Paths.get(LexiconImage.DIRECTORY, trie.lexicon + EXTENSION);
+		if(Files.exists(path)) {
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(image.getInt(0) == MAGIC && image.getInt(4) == VERSION && image.getInt(8) == trie.fingerprint()
+						&& image.getInt(12) == trie.wordCount()) {
+					System.out.println("steal graph mapped from " + path);
+					return new StealGraph(image);
+				}
+				System.out.println("steal graph " + path + " is out of date");
+			}
+			catch(IOException ioe) {
+				System.out.println(ioe.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the index of the first direct steal of the given word
+	 */
+	int stealsStart(int word) {
+		return stealsStart.get(word);
+	}
+
+	/**
+	 * @return one past the index of the last direct steal of the given word
+	 */
+	int stealsEnd(int word) {
+		return stealsStart.get(word + 1);
+	}
+
+	/**
+	 * @return the word at the given index of the steals section
+	 */
+	int steal(int i) {
+		return steals.get(i);
+	}
+
+	/**
+	 * @return the index of the first word of which the given word is a direct steal
+	 */
+	int sourcesStart(int word) {
+		return sourcesStart.get(word);
+	}
+
+	/**
+	 * @return one past the index of the last word of which the given word is a direct steal
+	 */
+	int sourcesEnd(int word) {
+		return sourcesStart.get(word + 1);
+	}
+
+	/**
+	 * @return the word at the given index of the sources section
+	 */
+	int source(int i) {
+		return sources.get(i);
+	}
+
+	/**
+	 * Finds every steal in the lexicon and packs the direct ones into an image.
+	 * <p>
+	 * The words of which W is a steal are found by visiting each node of the trie whose letters are a subset
+	 * of W's. An edge from U to W is then dropped if U is itself a source of another of W's sources.
+	 * Checking for a single intermediate word is enough to keep every steal reachable: each dropped edge
+	 * is replaced by two shorter ones, which are either kept or replaced in turn.
+	 */
+	static ByteBuffer build(AlphagramTrie trie) {
+
+		int wordCount = trie.wordCount();
+		String[] letters = new String[wordCount];
+		for(int w = 0; w < wordCount; w++) {
+			letters[w] = trie.wordAt(w).letters;
+		}
+
+		int[][] allSources = new int[wordCount][];
+		IntStream.range(0, wordCount).parallel().forEach(w -> allSources[w] = findSources(trie, letters, w));
+
+		int[][] directSources = new int[wordCount][];
+		IntStream.range(0, wordCount).parallel().forEach(w -> {
+			int[] sources = allSources[w];
+			boolean[] indirect = new boolean[sources.length];
+			for(int source : sources) {
+				for(int grandSource : allSources[source]) {
+					int i = Arrays.binarySearch(sources, grandSource);
+					if(i >= 0) indirect[i] = true;
+				}
+			}
+			int kept = 0;
+			for(int i = 0; i < sources.length; i++) {
+				if(!indirect[i]) sources[kept++] = sources[i];
+			}
+			directSources[w] = Arrays.copyOf(sources, kept);
+		});
+
+		//invert the sources to get the steals; visiting words in order keeps each list sorted
+		int[] sourcesStart = new int[wordCount + 1];
+		int[] stealsStart = new int[wordCount + 1];
+		for(int w = 0; w < wordCount; w++) {
+			sourcesStart[w + 1] = sourcesStart[w] + directSources[w].length;
+			for(int source : directSources[w]) {
+				stealsStart[source + 1]++;
+			}
+		}
+		for(int w = 0; w < wordCount; w++) {
+			stealsStart[w + 1] += stealsStart[w];
+		}
+		int stealCount = sourcesStart[wordCount];
+		int[] steals = new int[stealCount];
+		int[] sources = new int[stealCount];
+		int[] next = stealsStart.clone();
+		for(int w = 0; w < wordCount; w++) {
+			System.arraycopy(directSources[w], 0, sources, sourcesStart[w], directSources[w].length);
+			for(int source : directSources[w]) {
+				steals[next[source]++] = w;
+			}
+		}
+
+		ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + 4 * (2 * (wordCount + 1) + 2 * stealCount));
+		image.putInt(MAGIC)
+			.putInt(VERSION)
+			.putInt(trie.fingerprint())
+			.putInt(wordCount)
+			.putInt(stealCount);
+		for(int[] section : new int[][] {stealsStart, steals, sourcesStart, sources}) {
+			image.asIntBuffer().put(section);
+			image.position(image.position() + 4 * section.length);
+		}
+		System.out.println("steal graph built with " + stealCount + " direct steals among " + wordCount + " words");
+		return image.flip();
+	}
+
+	/**
+	 * @return the indices, in increasing order, of the shorter words of which the given word is a steal
+	 */
+	private static int[] findSources(AlphagramTrie trie, String[] letters, int word) {
+		String alphagram = Utils.alphabetize(letters[word]);
+		IntStream.Builder found = IntStream.builder();
+		findSources(trie, letters, letters[word], alphagram, 0, AlphagramTrie.ROOT, found);
+		return found.build().sorted().toArray();
+	}
+
+	/**
+	 * Visits every node whose letters are made up of the letters of the alphagram before position i
+	 * (some or all of them) and all of those from position i on, collecting the words that the longWord steals.
+	 */
+	private static void findSources(AlphagramTrie trie, String[] letters, String longWord, String alphagram, int i, int node, IntStream.Builder found) {
+		if(i == alphagram.length()) {
+			for(int w = trie.wordsStart(node); w < trie.wordsEnd(node); w++) {
+				if(letters[w].length() < longWord.length() && Utils.isRearrangement(letters[w], longWord)) {
+					found.add(w);
+				}
+			}
+			return;
+		}
+		char letter = alphagram.charAt(i);
+		int end = i;
+		while(end < alphagram.length() && alphagram.charAt(end) == letter) {
+			end++;
+		}
+		//take between none and all of the copies of this letter
+		for(int taken = 0; taken <= end - i && node != AlphagramTrie.NONE; taken++) {
+			findSources(trie, letters, longWord, alphagram, end, node, found);
+			node = trie.getChild(node, letter);
+		}
+	}
+}
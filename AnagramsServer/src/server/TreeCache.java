@@ -0,0 +1,104 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the WordTrees most recently asked for, so that every game, robot and lookup on the server shares
+ * the trees of words that come up again and again (e.g. RETAINS) instead of building its own.
+ * <p>
+ * Trees are keyed by lexicon, rootWord and whether they are limited to the common subset. The cache is bounded
+ * by an estimate of the memory its trees occupy, based on their number of nodes; once the bound is exceeded,
+ * the least recently used trees are evicted. When several threads ask for the same missing tree at once,
+ * one of them builds it while the others wait for the result.
+ */
+final class TreeCache {
+
+	private static final long MAX_SIZE = 64L << 20;	//bytes
+	private static final int NODE_SIZE = 300;		//the approximate footprint of a TreeNode and its Word, in bytes
+
+	private record Key(String lexicon, String root, boolean common) {}
+
+	private static final LinkedHashMap<Key, WordTree> trees = new LinkedHashMap<>(64, 0.75f, true);
+	private static final HashMap<Key, CompletableFuture<WordTree>> pending = new HashMap<>();
+	private static long size = 0;
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+
+	private TreeCache() {}
+
+	/**
+	 * @return the tree of the given rootWord in the given lexicon, building it if it is not in the cache
+	 */
+	static WordTree get(String root, AlphagramTrie trie) {
+		return get(new Key(trie.lexicon, root.toUpperCase(), false), trie);
+	}
+
+	/**
+	 * @return the tree of the steals of the given rootWord that belong to the lexicon's common subset
+	 */
+	static WordTree getCommon(String root, AlphagramTrie trie) {
+		return get(new Key(trie.lexicon, root.toUpperCase(), true), trie);
+	}
+
+	/**
+	 *
+	 */
+	private static WordTree get(Key key, AlphagramTrie trie) {
+		CompletableFuture<WordTree> future;
+		synchronized(trees) {
+			WordTree tree = trees.get(key);
+			if(tree != null) {
+				hits++;
+				return tree;
+			}
+			misses++;
+			future = pending.get(key);
+			if(future == null) {
+				pending.put(key, new CompletableFuture<>());
+			}
+		}
+		if(future != null) {
+			return future.join();
+		}
+
+		WordTree tree;
+		try {
+			tree = key.common() ? get(key.root(), trie).common() : new WordTree(key.root(), trie);
+		}
+		catch(RuntimeException e) {
+			synchronized(trees) {
+				pending.remove(key).completeExceptionally(e);
+			}
+			throw e;
+		}
+		synchronized(trees) {
+			pending.remove(key).complete(tree);
+			trees.put(key, tree);
+			size += (long)NODE_SIZE * tree.size();
+			//the tree just added is the most recently used, so it is the last to go
+			Iterator<Map.Entry<Key, WordTree>> it = trees.entrySet().iterator();
+			while(size > MAX_SIZE && trees.size() > 1) {
+				size -= (long)NODE_SIZE * it.next().getValue().size();
+				it.remove();
+				evictions++;
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @return a summary of the cache's contents and how often it has been useful
+	 */
+	static String getStats() {
+		synchronized(trees) {
+			long requests = hits + misses;
+			return "%d trees (about %d MB), %d hits, %d misses (%.1f%% hit rate), %d evictions".formatted(
+					trees.size(), size >> 20, hits, misses, requests == 0 ? 0.0 : 100.0 * hits / requests, evictions);
+		}
+	}
+}
@@ -2,8 +2,8 @@ package server;
 
 import org.json.JSONObject;
 
-import java.util.prefs.BackingStoreException;
-import java.util.prefs.Preferences;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -11,7 +11,6 @@ import java.util.prefs.Preferences;
 class UserData {
 
     private JSONObject prefs;
-    private Preferences backingStore;
     private boolean guest;
 
     private final String username;
@@ -58,35 +57,32 @@ class UserData {
         }
 
         //public userdata
-        backingStore = Preferences.userNodeForPackage(getClass()).node(username);
-        rating = backingStore.getInt("rating", 1500);
-        profile = backingStore.get("profile", username);
-
-        prefs = new JSONObject()
-        //colors
-            .put("main_screen", backingStore.get("main_screen", defaults.getString("main_screen")))
-            .put("players_list", backingStore.get("players_list", defaults.getString("players_list")))
-            .put("game_foreground", backingStore.get("game_foreground", defaults.getString("game_foreground")))
-            .put("game_background", backingStore.get("game_background", defaults.getString("game_background")))
-            .put("chat_area", backingStore.get("chat_area", defaults.getString("chat_area")))
-            .put("game_chat", backingStore.get("game_chat", defaults.getString("game_chat")))
-        //game defaults
-            .put("max_players", backingStore.getInt("max_players", defaults.getInt("max_players")))
-            .put("min_length", backingStore.getInt("min_length", defaults.getInt("min_length")))
-            .put("num_sets", backingStore.getInt("num_sets", defaults.getInt("num_sets")))
-            .put("blank_penalty", backingStore.getInt("blank_penalty", defaults.getInt("blank_penalty")))
-            .put("lexicon", backingStore.get("lexicon", defaults.getString("lexicon")))
-            .put("speed", backingStore.get("speed", defaults.getString("speed")))
-            .put("allow_chat", backingStore.getBoolean("allow_chat", defaults.getBoolean("allow_chat")))
-            .put("allow_watchers", backingStore.getBoolean("allow_watchers", defaults.getBoolean("allow_watchers")))
-            .put("add_robot", backingStore.getBoolean("add_robot", defaults.getBoolean("add_robot")))
-            .put("robot_skill", backingStore.get("robot_skill", defaults.getString("robot_skill")))
-            .put("rated", backingStore.getBoolean("rated", defaults.getBoolean("rated")))
-        //other
-            .put("show_guide", backingStore.getBoolean("show_guide", defaults.getBoolean("show_guide")))
-            .put("highlight_words", backingStore.getBoolean("highlight_words", defaults.getBoolean("highlight_words")))
-            .put("play_sounds", backingStore.getBoolean("play_sounds", defaults.getBoolean("play_sounds")));
+        Map<String, String> stored = UserStore.get(username);
+        rating = getInt(stored, "rating", 1500);
+        profile = stored.getOrDefault("profile", username);
+
+        prefs = new JSONObject();
+        for(String key : defaults.keySet()) {
+            Object def = defaults.get(key);
+            if(def instanceof Integer n)
+                prefs.put(key, getInt(stored, key, n));
+            else if(def instanceof Boolean b)
+                prefs.put(key, stored.containsKey(key) ? Boolean.parseBoolean(stored.get(key)) : b);
+            else
+                prefs.put(key, stored.getOrDefault(key, (String)def));
+        }
+    }
 
+    /**
+     * @return the given stored field as an int, or def if it is missing or malformed
+     */
+    private static int getInt(Map<String, String> stored, String key, int def) {
+        try {
+            return stored.containsKey(key) ? Integer.parseInt(stored.get(key)) : def;
+        }
+        catch(NumberFormatException nfe) {
+            return def;
+        }
     }
 
     /**
@@ -96,39 +92,44 @@ class UserData {
         switch(newPrefs.getString("type")) {
             case "settings" -> updateSettings(newPrefs.getJSONObject("prefs"));
             case "game" -> updateGamePrefs(newPrefs.getJSONObject("prefs"));
-            case "guide" -> backingStore.putBoolean("show_guide", false);
+            case "guide" -> save(Map.of("show_guide", "false"));
         }
     }
 
     /**
-     * Save the settings from the SettingsMenu the preferences file
+     * Save the settings from the SettingsMenu to the user store
      */
     void updateSettings(JSONObject newPrefs) {
-        backingStore.put("main_screen", newPrefs.getString("main_screen"));
-        backingStore.put("players_list", newPrefs.getString("players_list"));
-        backingStore.put("game_foreground", newPrefs.getString("game_foreground"));
-        backingStore.put("game_background", newPrefs.getString("game_background"));
-        backingStore.put("chat_area", newPrefs.getString("chat_area"));
-        backingStore.put("game_chat", newPrefs.getString("game_chat"));
-        backingStore.putBoolean("highlight_words", newPrefs.getBoolean("highlight_words"));
-        backingStore.putBoolean("play_sounds", newPrefs.getBoolean("play_sounds"));
+        save(copy(newPrefs, "main_screen", "players_list", "game_foreground", "game_background", "chat_area", "game_chat",
+                "highlight_words", "play_sounds"));
     }
 
     /**
-     * Save the settings from the GameMenu to the preferences file
+     * Save the settings from the GameMenu to the user store
      */
     void updateGamePrefs(JSONObject newPrefs) {
-        backingStore.putInt("max_players", newPrefs.getInt("max_players"));
-        backingStore.putInt("min_length", newPrefs.getInt("min_length"));
-        backingStore.putInt("num_sets", newPrefs.getInt("num_sets"));
-        backingStore.putInt("blank_penalty", newPrefs.getInt("blank_penalty"));
-        backingStore.put("lexicon", newPrefs.getString("lexicon"));
-        backingStore.put("speed", newPrefs.getString("speed"));
-        backingStore.putBoolean("allow_chat", newPrefs.getBoolean("allow_chat"));
-        backingStore.putBoolean("allow_watchers", newPrefs.getBoolean("allow_watchers"));
-        backingStore.putBoolean("add_robot", newPrefs.getBoolean("add_robot"));
-        backingStore.put("robot_skill", newPrefs.getString("robot_skill"));
-        backingStore.putBoolean("rated", newPrefs.getBoolean("rated"));
+        save(copy(newPrefs, "max_players", "min_length", "num_sets", "blank_penalty", "lexicon", "speed",
+                "allow_chat", "allow_watchers", "add_robot", "robot_skill", "rated"));
+    }
+
+    /**
+     * @return the given fields of the given prefs as strings
+     */
+    private static Map<String, String> copy(JSONObject newPrefs, String... keys) {
+        HashMap<String, String> fields = new HashMap<>();
+        for(String key : keys) {
+            fields.put(key, String.valueOf(newPrefs.get(key)));
+        }
+        return fields;
+    }
+
+    /**
+     * Writes the given fields to the user store all at once
+     */
+    private void save(Map<String, String> fields) {
+        if(!guest) {
+            UserStore.put(username, fields);
+        }
     }
 
     /**
@@ -156,13 +157,17 @@ class UserData {
     }
 
     /**
-     *
+     * Sets the rating shown to other users. It is not written to the backing store until {@link #saveRating()}.
      */
     void setRating(int newRating) {
         rating = newRating;
-        if(!guest) {
-            backingStore.putInt("rating", newRating);
-        }
+    }
+
+    /**
+     *
+     */
+    void saveRating() {
+        save(Map.of("rating", String.valueOf(rating)));
     }
 
     /**
@@ -170,21 +175,17 @@ class UserData {
      */
     void setProfile(String profile) {
         this.profile = profile;
-        if(!guest) {
-            backingStore.put("profile", profile);
-        }
+        save(Map.of("profile", profile));
     }
 
     /**
      *
      */
     void remove() {
-        guest = true;
-        try {
-            backingStore.removeNode();
-        } catch (BackingStoreException e) {
-            throw new RuntimeException(e);
+        if(!guest) {
+            UserStore.remove(username);
         }
+        guest = true;
     }
 
 }
@@ -0,0 +1,339 @@
+package server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps the data of every registered user (and robot) in memory, indexed by name, email and rating,
+ * and records every change as a line appended to a log file.
+ * <p>
+ * Each line of the log is a JSON object naming a user and either the fields that were set or the fact that the
+ * user was removed. At startup the log is replayed and rewritten with one line per user, which also discards
+ * a line torn by a crash. If there is no log yet, the users are copied once from the java.util.prefs tree
+ * in which they used to be kept.
+ * <p>
+ * Changes take effect in memory at once but are written behind: the changes to each user are merged until the
+ * next flush, every few seconds, which appends a line for each changed user and syncs the log to disk once.
+ * So a user dragging a colour picker in the settings menu costs at most one line and one sync per flush.
+ * The pending changes are also flushed by {@link #close()}, when the server shuts down or the JVM exits.
+ */
+final class UserStore {
+
+	private static final Path LOG = Paths.get("users", "users.log");
+	private static final long FLUSH_INTERVAL = 5;	//seconds
+
+	private record Rank(int rating, String name) {}
+
+	private static final Comparator<Rank> BY_RATING = Comparator.comparingInt(Rank::rating).reversed().thenComparing(Rank::name);
+
+	private static final HashMap<String, HashMap<String, String>> users = new HashMap<>();
+	private static final HashMap<String, String> emails = new HashMap<>();
+	private static final TreeSet<Rank> ratings = new TreeSet<>(BY_RATING);
+
+	/**
+	 * The changes to a user since the last flush: whether the user was removed, then the fields set since
+	 */
+	private static class Pending {
+		boolean removed = false;
+		final HashMap<String, String> fields = new HashMap<>();
+	}
+
+	private static LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+	private static final Object flushLock = new Object();	//held while writing, so that batches reach the log in order
+	private static FileChannel log;
+	private static boolean closed = false;
+	private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "UserStore flusher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		try {
+			Files.createDirectories(LOG.getParent());
+			if(Files.exists(LOG)) {
+				load();
+			}
+			else {
+				migrate();
+			}
+			compact();
+			log = FileChannel.open(LOG, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		catch(IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		flusher.scheduleWithFixedDelay(UserStore::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(UserStore::close));
+	}
+
+	private UserStore() {}
+
+	/**
+	 * @return the number of registered users
+	 */
+	static synchronized int size() {
+		return users.size();
+	}
+
+	/**
+	 * @return whether a user by the given name is registered
+	 */
+	static synchronized boolean exists(String name) {
+		return users.containsKey(name);
+	}
+
+	/**
+	 * @return a copy of the fields stored for the given user, which is empty if there is no such user
+	 */
+	static synchronized Map<String, String> get(String name) {
+		HashMap<String, String> fields = users.get(name);
+		return fields == null ? Map.of() : new HashMap<>(fields);
+	}
+
+	/**
+	 * @return the value of the given user's field, or def if the user or field does not exist
+	 */
+	static synchronized String get(String name, String key, String def) {
+		HashMap<String, String> fields = users.get(name);
+		return fields == null ? def : fields.getOrDefault(key, def);
+	}
+
+	/**
+	 * @return the name of the user registered with the given email address, if any
+	 */
+	static synchronized Optional<String> findByEmail(String email) {
+		return Optional.ofNullable(emails.get(email));
+	}
+
+	/**
+	 * @return the names and ratings of every user with a positive rating, highest first
+	 */
+	static synchronized List<Map.Entry<String, Integer>> getRatings() {
+		List<Map.Entry<String, Integer>> list = new ArrayList<>();
+		for(Rank rank : ratings) {
+			if(rank.rating() <= 0) break;
+			list.add(Map.entry(rank.name(), rank.rating()));
+		}
+		return list;
+	}
+
+	/**
+	 * Sets the given fields of the given user, registering the user if necessary.
+	 * They are written to the log with the next flush.
+	 *
+	 * @throws IllegalStateException if the store has been closed, since the change could no longer be saved
+	 */
+	static synchronized void put(String name, Map<String, String> fields) {
+		checkOpen(name);
+		apply(name, fields);
+		pending.computeIfAbsent(name, k -> new Pending()).fields.putAll(fields);
+	}
+
+	/**
+	 *
+	 */
+	static void put(String name, String key, String value) {
+		put(name, Map.of(key, value));
+	}
+
+	/**
+	 * Deletes the given user and all of their data
+	 */
+	static synchronized void remove(String name) {
+		checkOpen(name);
+		if(delete(name)) {
+			Pending change = new Pending();
+			change.removed = true;
+			pending.put(name, change);
+		}
+	}
+
+	/**
+	 * Appends the changes made since the last flush to the log and syncs it to disk
+	 */
+	static void flush() {
+		synchronized(flushLock) {
+			LinkedHashMap<String, Pending> batch;
+			synchronized(UserStore.class) {
+				if(pending.isEmpty()) return;
+				batch = pending;
+				pending = new LinkedHashMap<>();
+			}
+			StringBuilder lines = new StringBuilder();
+			for(Map.Entry<String, Pending> change : batch.entrySet()) {
+				if(change.getValue().removed) {
+					lines.append(new JSONObject().put("user", change.getKey()).put("remove", true)).append('\n');
+				}
+				if(!change.getValue().fields.isEmpty()) {
+					lines.append(new JSONObject().put("user", change.getKey()).put("set", change.getValue().fields)).append('\n');
+				}
+			}
+			try {
+				ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+				while(buffer.hasRemaining()) {
+					log.write(buffer);
+				}
+				log.force(false);
+			}
+			catch(IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Flushes the pending changes and closes the log. Called when the server shuts down, and again when the JVM exits.
+	 */
+	static void close() {
+		synchronized(flushLock) {
+			synchronized(UserStore.class) {
+				if(closed) return;
+				//no change can be made after the last batch is taken
+				closed = true;
+			}
+			flusher.shutdown();
+			flush();
+			try {
+				log.close();
+			}
+			catch(IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void checkOpen(String name) {
+		if(closed) {
+			throw new IllegalStateException("The user store has been closed; the change to " + name + " was not saved");
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void apply(String name, Map<String, String> fields) {
+		HashMap<String, String> current = users.computeIfAbsent(name, k -> new HashMap<>());
+		for(Map.Entry<String, String> field : fields.entrySet()) {
+			String old = current.put(field.getKey(), field.getValue());
+			switch(field.getKey()) {
+				case "email" -> {
+					if(old != null) emails.remove(old, name);
+					emails.put(field.getValue(), name);
+				}
+				case "rating" -> {
+					if(old != null) ratings.remove(new Rank(parseRating(old), name));
+					ratings.add(new Rank(parseRating(field.getValue()), name));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the user existed
+	 */
+	private static boolean delete(String name) {
+		HashMap<String, String> fields = users.remove(name);
+		if(fields == null) return false;
+		if(fields.containsKey("email")) emails.remove(fields.get("email"), name);
+		if(fields.containsKey("rating")) ratings.remove(new Rank(parseRating(fields.get("rating")), name));
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	private static int parseRating(String rating) {
+		try {
+			return Integer.parseInt(rating);
+		}
+		catch(NumberFormatException nfe) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Replays the log
+	 */
+	private static void load() throws IOException {
+		try(BufferedReader reader = Files.newBufferedReader(LOG, StandardCharsets.UTF_8)) {
+			for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+				try {
+					JSONObject json = new JSONObject(line);
+					String name = json.getString("user");
+					if(json.has("remove")) {
+						delete(name);
+					}
+					else {
+						JSONObject set = json.getJSONObject("set");
+						HashMap<String, String> fields = new HashMap<>();
+						for(String key : set.keySet()) {
+							fields.put(key, set.getString(key));
+						}
+						apply(name, fields);
+					}
+				}
+				catch(JSONException je) {
+					System.out.println("Skipping unreadable line in " + LOG + ": " + line);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies every user from the preferences tree
+	 */
+	private static void migrate() {
+		Preferences root = Preferences.userNodeForPackage(Server.class);
+		try {
+			for(String name : root.childrenNames()) {
+				Preferences node = root.node(name);
+				HashMap<String, String> fields = new HashMap<>();
+				for(String key : node.keys()) {
+					fields.put(key, node.get(key, ""));
+				}
+				apply(name, fields);
+			}
+			System.out.println(users.size() + " users migrated from preferences");
+		}
+		catch(BackingStoreException bse) {
+			bse.printStackTrace();
+		}
+	}
+
+	/**
+	 * Rewrites the log with a single line for each user, replacing the old one only once the new one is complete
+	 */
+	private static void compact() throws IOException {
+		Path temp = LOG.resolveSibling(LOG.getFileName() + ".tmp");
+		try(BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			for(Map.Entry<String, HashMap<String, String>> user : users.entrySet()) {
+				out.write(new JSONObject().put("user", user.getKey()).put("set", user.getValue()).toString());
+				out.newLine();
+			}
+		}
+		Files.move(temp, LOG, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
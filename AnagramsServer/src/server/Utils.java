@@ -1,47 +1,18 @@
 package server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A collection of static methods for working with Strings
  */
 class Utils {
 
-    /**
-     * Given two words, determines whether one's letters are a strict subset of the other's.
-     *
-     * @param shortWord a shorter word
-     * @param longWord a longer word
-     */
-    static boolean isSubset(String shortWord, String longWord) {
-
-        if(shortWord.length() >= longWord.length()) {
-            return false;
-        }
-
-        String shortString = Utils.alphabetize(shortWord);
-        String longString = Utils.alphabetize(longWord);
-
-        while(shortString.length() > 0) {
-
-            if(longString.length() == 0 ) {
-                return false;
-            }
-            else if(shortString.charAt(0) < longString.charAt(0)) {
-                return false;
-            }
-            else if(shortString.charAt(0) > longString.charAt(0)) {
-                longString = longString.substring(1);
-            }
-            else {
-                shortString = shortString.substring(1);
-                longString = longString.substring(1);
-            }
-        }
-        return true;
-    }
-
     /**
      * Given two words, one longer than the other, determines whether one's letters can be rearranged,
      * with the addition of at least one letter not found in the shorter word, to form the longer one.
@@ -51,15 +22,17 @@ class Utils {
      */
     static boolean isRearrangement(String shortWord, String longWord) {
 
-        while(longWord.length() >= shortWord.length() && shortWord.length() > 0) {
+        int s = 0;
+        int l = 0;
+        while(longWord.length() - l >= shortWord.length() - s && s < shortWord.length()) {
 
-            if (shortWord.charAt(0) == longWord.charAt(0)) {
-                shortWord = shortWord.substring(1);
+            if (shortWord.charAt(s) == longWord.charAt(l)) {
+                s++;
             }
-            longWord = longWord.substring(1);
+            l++;
         }
 
-        return shortWord.length() > longWord.length();
+        return shortWord.length() - s > longWord.length() - l;
     }
 
 
@@ -75,11 +48,19 @@ class Utils {
     }
 
     /**
-     * Check whether the List contains any String with exactly the same letters in the same order
-     * but possibly of different case.
+     * Compresses a String with gzip so that it can be sent as a JSON String, e.g. a game log.
+     *
+     * @return the gzipped UTF-8 bytes of the String, in Base64
      */
-    static boolean containsCaseInsensitive(List<String> l, String s){
-        return l.stream().anyMatch(x -> x.equalsIgnoreCase(s));
+    static String compress(String s) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
     }
 
 }
@@ -1,13 +1,41 @@
 package server;
 
+/**
+ * A word in a lexicon. The definition stays in the lexicon image until it is requested.
+ */
 class Word {
     final String letters;
     final String suffix;
-    final String definition;
+    final LetterCounts counts;
+    private final AlphagramTrie trie;
+    final int index;
 
-    Word(String letters, String suffix, String definition) {
+    /**
+     * A word decoded from a lexicon image, along with the letter counts stored for it there
+     */
+    Word(String letters, String suffix, LetterCounts counts, AlphagramTrie trie, int index) {
         this.letters = letters;
         this.suffix = suffix;
-        this.definition = definition;
+        this.counts = counts;
+        this.trie = trie;
+        this.index = index;
+    }
+
+    /**
+     * A sequence of letters that does not belong to any lexicon
+     */
+    Word(String letters) {
+        this(letters, "", LetterCounts.of(letters), null, AlphagramTrie.NONE);
+    }
+
+    /**
+     * @return whether this word belongs to its lexicon's common subset
+     */
+    boolean isCommon() {
+        return trie != null && trie.isCommon(index);
+    }
+
+    String getDefinition() {
+        return trie == null ? "" : trie.definitionAt(index);
     }
 }
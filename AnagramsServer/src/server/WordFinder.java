@@ -10,16 +10,17 @@ import java.util.*;
  */
 class WordFinder {
 
+    private static final int MAX_POOL_WORDS = 40;
+
     private final int blankPenalty;
     private final int minLength;
     private final AlphagramTrie dictionary;
+    private final Play play;
+    private final PoolSearch poolSearch;
 
     private String tilePool;
-    private int blanksAvailable = 0;
 
-    private final HashSet<String> wordsInPool = new HashSet<>();
     private final JSONArray possibleSteals = new JSONArray();
-    HashMap<String, WordTree> trees = new HashMap<>();
 
     /**
      *
@@ -28,24 +29,28 @@ class WordFinder {
         this.minLength = minLength;
         this.blankPenalty = blankPenalty;
         this.dictionary = dictionary;
+        this.play = new Play(minLength, blankPenalty);
+        this.poolSearch = new PoolSearch(dictionary, minLength, blankPenalty);
     }
 
     /**
-     * Given a gameState, generates a list of all possible (up to 70) valid plays, e.g.
+     * Given a gameState, generates a list of the best (up to 40) words that can be made from the pool
+     * and of all possible (up to 30) steals.
      */
     synchronized JSONObject findWords(JSONObject gameState) {
 
-        wordsInPool.clear();
         possibleSteals.clear();
 
-        String tiles = gameState.getString("tiles").replace("#", "");
-        tilePool = tiles.length() <= 20 ? tiles : tiles.substring(0, 20);
-        blanksAvailable = tiles.length() - tiles.replaceAll("\\?","").length();
+        tilePool = gameState.getString("tiles").replace("#", "");
 
-        if(tilePool.length() >= minLength)
-            findInPool(dictionary.rootNode, "", Utils.alphabetize(tilePool.replaceAll("\\?","")), 0);
+        JSONArray wordsInPool = new JSONArray();
+        if(tilePool.length() >= minLength) {
+            for(PoolSearch.Match match : poolSearch.findWords(tilePool, MAX_POOL_WORDS)) {
+                wordsInPool.put(match.letters() + match.word().suffix);
+            }
+        }
 
-        JSONObject foundWords = new JSONObject().put("pool", new JSONArray(wordsInPool));
+        JSONObject foundWords = new JSONObject().put("pool", wordsInPool);
 
         JSONArray players = gameState.getJSONArray("players");
         players.forEach(player -> searchForSteals(((JSONObject)player).getJSONArray("words")));
@@ -53,71 +58,6 @@ class WordFinder {
         return foundWords.put("steals", possibleSteals);
     }
 
-
-
-
-    /**
-     * Recursively searches the pool for words and adds them to the wordsInPool Set
-     *
-     * @param node 				The node being searched
-     * @param charsFound 		chars found so far (the 'address' of the current node)
-     * @param poolRemaining 	chars left in the pool from which to form a word
-     * @param blanksRequired 	Blanks needed to make this word
-     */
-    private void findInPool(Node node, String charsFound, String poolRemaining, int blanksRequired) {
-
-        if(wordsInPool.size() >= 40) {
-            return;
-        }
-
-        else if(charsFound.length() >= minLength + blanksRequired*(blankPenalty+1)) {
-            if(blanksRequired == 0) {
-                node.words.forEach(word -> wordsInPool.add(word.letters + word.suffix));
-            }
-            else {
-                for(Word anagram : node.words) {
-                    String newWord = "";
-                    String tiles = tilePool;
-                    for (String s : anagram.letters.split("")) {
-                        //move a non-blank tile to the new word
-                        if (tiles.contains(s)) {
-                            tiles = tiles.replaceFirst(s, "");
-                            newWord = newWord.concat(s);
-                        }
-                        //move a blank to the new word and designate it
-                        else {
-                            tiles = tiles.replaceFirst("\\?", "");
-                            newWord = newWord.concat(s.toLowerCase());
-                        }
-                    }
-                    wordsInPool.add(newWord + anagram.suffix);
-                }
-            }
-        }
-
-        for(int i = 0; i < poolRemaining.length(); i++) {
-            char nextChar = poolRemaining.charAt(i);
-            if(node.children.containsKey(nextChar)) {
-                if(charsFound.length()+1 + poolRemaining.length()-(i+1) >= blanksRequired*(blankPenalty+1) + minLength) {
-                    findInPool(node.children.get(nextChar), charsFound + nextChar, poolRemaining.substring(i+1), blanksRequired);
-                }
-            }
-
-            if(blanksAvailable >= blanksRequired+1 && charsFound.length()+1 + poolRemaining.length()-i >= (blanksRequired+1)*(blankPenalty+1) + minLength) {
-                for(Map.Entry<Character, Node> child : node.children.headMap(nextChar).entrySet()) {
-                    findInPool(child.getValue(), charsFound + child.getKey(), poolRemaining.substring(i), blanksRequired + 1);
-                }
-            }
-        }
-
-        if (blanksAvailable >= (blanksRequired + 1) && charsFound.length()+1 >= (blanksRequired+1)*(blankPenalty+1) + minLength) {
-            for(Map.Entry<Character, Node> child : node.children.entrySet()) {
-                findInPool(child.getValue(), charsFound + child.getKey(), "", blanksRequired + 1);
-            }
-        }
-    }
-
-
     /**
      * Finds all (up to 30) possible first-order steals (i.e. steals that are not steals of steals).
      *
@@ -125,12 +65,17 @@ class WordFinder {
      */
     private synchronized void searchForSteals(JSONArray words) {
 
+        LetterCounts pool = LetterCounts.of(tilePool);
+        int poolBlanks = tilePool.length() - tilePool.replace("?", "").length();
+
         Iterator<Object> it = words.iterator();
         while(it.hasNext() && possibleSteals.length() < 30) {
             String shortWord = ((String)it.next()).replaceAll("[#$]","");
             String nonBlanks = shortWord.replaceAll("[a-z]", "");
+            LetterCounts fixed = LetterCounts.of(nonBlanks);
+            int blanks = poolBlanks + shortWord.length() - nonBlanks.length();
 
-            WordTree tree = trees.computeIfAbsent(nonBlanks, word -> new WordTree(nonBlanks, dictionary));
+            WordTree tree = TreeCache.get(nonBlanks, dictionary);
             ArrayDeque<TreeNode> wordQueue = new ArrayDeque<>(tree.rootNode.getChildren());
 
             while(!wordQueue.isEmpty()) {
@@ -143,9 +88,12 @@ class WordFinder {
                 else if (entry.length() > shortWord.length() + tilePool.length()) {
                     continue;
                 }
+                //the letters found in neither the shortWord nor the pool must all be made from blanks
+                else if (child.getWord().counts.minus(fixed).minus(pool).size() > blanks) {
+                    continue;
+                }
 
-                Play play = new Play(shortWord, entry, tilePool, minLength, blankPenalty);
-                if (play.isValid()) {
+                if (play.isValid(shortWord, entry, tilePool)) {
                     possibleSteals.put(new JSONObject()
                             .put("shortWord", dictionary.annotate(shortWord))
                             .put("steal", child.getLongSteal())
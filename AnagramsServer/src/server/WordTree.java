@@ -14,15 +14,15 @@ import java.util.*;
  * <p>
  * On the other hand, PROMENADE is not a steal of POMADE because the latter can be formed from the
  * former by insertion of letters without rearrangement.
- *
+ * <p>
+ * A tree is not changed once it has been built, so it can be shared between threads (see {@link TreeCache}).
  */
 class WordTree {
 
 	final AlphagramTrie trie;
 	final TreeNode rootNode;
 	String rootWord;
-	private final TreeSet<TreeNode> treeNodeList = new TreeSet<>(new TreeNodeComparator());
-	final JSONArray jsonArray = new JSONArray();
+	private final ArrayList<TreeNode> steals = new ArrayList<>();
 	private int maxLength = 21; //unused
 
 	/**
@@ -40,79 +40,188 @@ class WordTree {
 		rootWord = root.toUpperCase();
 		Word trieNode = trie.getWord(rootWord);
 		rootNode = new TreeNode(Objects.requireNonNullElseGet(trieNode,
-				() -> new Word(rootWord, "", "")), "");
+				() -> new Word(rootWord)), "");
 		rootNode.setShortSteal("");
 		rootNode.setProb(1);
 		this.trie = trie;
 
-		treeNodeList.add(rootNode);
-		String rootChars = Utils.alphabetize(rootWord);
-		find(trie.rootNode, rootChars, "");
-
-		while(treeNodeList.size() > 1)
-			buildTree();
-
+		StealGraph graph = trie.getStealGraph();
+		if(graph != null && trieNode != null) {
+			followSteals(graph, trieNode.index);
+		}
+		else {
+			find(AlphagramTrie.ROOT, Utils.alphabetize(rootWord), "");
+			arrange(graph);
+		}
 		sort(rootNode);
+		weigh(rootNode);
 
 		if(trieNode == null) {
 			rootWord = root.toLowerCase();
 		}
 	}
 
-
 	/**
-	 * Recursively searches the children of a given node for words containing the given list of characters.
-	 *
-	 * @param node a node in the trie
-	 * @param charsToFind characters that a descendant of the given node's path must contain to be considered a steal of the rootWord
+	 * Generates a tree of the common words among those already found by another tree, without searching the trie again
 	 */
-	private void find(Node node, String charsToFind, String otherCharsFound) {
-	//	if(charsToFind.length() + otherCharsFound.length() > maxLength) return;
-		if(charsToFind.length() > 0) {
-			char firstChar = charsToFind.charAt(0);
-			for(Map.Entry<Character,Node> child : node.children.headMap(firstChar, true).entrySet()) {
-				if(child.getKey().equals(firstChar))
-					find(child.getValue(), charsToFind.substring(1), otherCharsFound);
-				else
-					find(child.getValue(), charsToFind, otherCharsFound + child.getKey());
+	private WordTree(WordTree fullTree) {
+		rootWord = fullTree.rootWord;
+		rootNode = new TreeNode(fullTree.rootNode.getWord(), "");
+		rootNode.setShortSteal("");
+		rootNode.setProb(1);
+		trie = fullTree.trie;
+
+		for(TreeNode steal : fullTree.steals) {
+			if(steal.getWord().isCommon()) {
+				steals.add(new TreeNode(steal.getWord(), steal.getLongSteal()));
 			}
 		}
+		//the steal graph links words through words that may not be common, so the common words are compared directly
+		arrange(null);
+		sort(rootNode);
+		weigh(rootNode);
+	}
 
-		//If the node's path already contains all characters to be found, then automatically add its descendants to the node list
-		else {
-			for(Word word : node.words) {
-				if(word.letters.length() > rootWord.length()) {	 //This prevents the node list from including the node of the search key itself
-					treeNodeList.add(new TreeNode(word, otherCharsFound));
+	/**
+	 * @return a tree containing only the steals of the rootWord that belong to the lexicon's common subset
+	 */
+	WordTree common() {
+		return new WordTree(this);
+	}
+
+	/**
+	 * Grows the tree from a rootWord in the lexicon by following the steal graph, without searching the trie.
+	 * Every word reached is a steal of the rootWord, directly or through other steals, and is attached beneath
+	 * the best of its direct sources as described in {@link #arrange(StealGraph)}. Since the edges left out of the
+	 * graph are those bypassing some longer word, that longer word is always in the tree as a better source.
+	 */
+	private void followSteals(StealGraph graph, int root) {
+		HashMap<Integer, TreeNode> nodes = new HashMap<>();
+		nodes.put(root, rootNode);
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		queue.add(root);
+		while(!queue.isEmpty()) {
+			int word = queue.poll();
+			for(int i = graph.stealsStart(word); i < graph.stealsEnd(word); i++) {
+				int steal = graph.steal(i);
+				if(!nodes.containsKey(steal)) {
+					Word stealWord = trie.wordAt(steal);
+					TreeNode node = new TreeNode(stealWord, stealWord.counts.minus(rootNode.getWord().counts).toAlphagram());
+					nodes.put(steal, node);
+					steals.add(node);
+					queue.add(steal);
 				}
 			}
-			for(Map.Entry<Character,Node> child : node.children.entrySet())
-				find(child.getValue(), "", otherCharsFound + child.getKey());
+		}
+
+		for(TreeNode node : steals) {
+			findSource(graph, node, nodes).addChild(node);
 		}
 	}
 
 	/**
-	 * Given the class's list of TreeNodes, each representing a single word,
+	 * Given the steals found by searching the trie, each representing a single word,
 	 * 	 sort them into a hierarchical structure such that:
 	 * 		(1) each word becomes a child of the longest word whose letters are a strict subset of that word's letters
 	 *		(2) provided that at least two letters of the shorter word are rearranged to form the longer word
 	 *		(3) any word whose letters cannot be formed from a shorter word by rearrangement is eliminated
 	 *		(4) the shortest word is the rootWord entered by the user.
+	 * Ties in (1) go to the alphabetically last word. Words are placed from shortest to longest, so that every
+	 * possible source of a word has already been placed (or eliminated) by the time the word is reached.
+	 *
+	 * @param graph the steal graph from which to look up each word's sources, or null to compare the words directly
 	 */
-	private void buildTree() {
+	private void arrange(StealGraph graph) {
+		ArrayList<TreeNode> found = new ArrayList<>(steals);
+		found.sort(new TreeNodeComparator().reversed());
+		steals.clear();
 
-		TreeNode currentNode = treeNodeList.pollFirst();
-		String currentWord = currentNode.getWord().letters;
+		HashMap<Integer, TreeNode> nodes = new HashMap<>();
+		for(TreeNode node : found) {
+			TreeNode source = graph != null ? findSource(graph, node, nodes) : findSource(node);
+			if(source == null && isSteal(rootNode.getWord(), node.getWord())) {
+				source = rootNode;
+			}
+			if(source != null) {
+				source.addChild(node);
+				nodes.put(node.getWord().index, node);
+				steals.add(node);
+			}
+		}
+	}
 
-		for (TreeNode nextNode : treeNodeList) {
-			String nextWord = nextNode.getWord().letters;
-			if (Utils.isSubset(nextWord, currentWord) && Utils.isRearrangement(nextWord, currentWord)) {
-				nextNode.addChild(currentNode);
-				return;
+	/**
+	 * @return the best of the given word's direct sources that are already in the tree, or null if there are none
+	 */
+	private TreeNode findSource(StealGraph graph, TreeNode node, HashMap<Integer, TreeNode> nodes) {
+		TreeNodeComparator order = new TreeNodeComparator();
+		TreeNode best = null;
+		int word = node.getWord().index;
+		for(int i = graph.sourcesStart(word); i < graph.sourcesEnd(word); i++) {
+			TreeNode source = nodes.get(graph.source(i));
+			if(source != null && (best == null || order.compare(source, best) < 0)) {
+				best = source;
 			}
 		}
+		return best;
+	}
 
-		//If a word is not a steal of any shorter word, that word is eliminated and its children are returned to the front of the queue
-		treeNodeList.addAll(currentNode.getChildren());
+	/**
+	 * @return the best of the steals already in the tree of which the given word is a steal, or null if there are none
+	 */
+	private TreeNode findSource(TreeNode node) {
+		//the steals are placed in increasing order, so the best source is the last one that qualifies
+		for(int i = steals.size() - 1; i >= 0; i--) {
+			if(isSteal(steals.get(i).getWord(), node.getWord())) {
+				return steals.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the longWord contains all the letters of the shorter shortWord with at least one rearrangement
+	 */
+	private static boolean isSteal(Word shortWord, Word longWord) {
+		return shortWord.letters.length() < longWord.letters.length() && longWord.counts.contains(shortWord.counts)
+				&& Utils.isRearrangement(shortWord.letters, longWord.letters);
+	}
+
+	/**
+	 * Recursively searches the children of a given node for words containing the given list of characters
+	 * and adds them to the list of steals.
+	 *
+	 * @param node a node in the trie
+	 * @param charsToFind characters that a descendant of the given node's path must contain to be considered a steal of the rootWord
+	 */
+	private void find(int node, String charsToFind, String otherCharsFound) {
+	//	if(charsToFind.length() + otherCharsFound.length() > maxLength) return;
+		if(charsToFind.length() > 0) {
+			char firstChar = charsToFind.charAt(0);
+			int child = trie.firstChild(node);
+			for(int mask = trie.childMask(node); mask != 0; mask &= mask - 1, child++) {
+				char letter = (char)('A' + Integer.numberOfTrailingZeros(mask));
+				if(letter > firstChar)
+					break;
+				else if(letter == firstChar)
+					find(child, charsToFind.substring(1), otherCharsFound);
+				else
+					find(child, charsToFind, otherCharsFound + letter);
+			}
+		}
+
+		//If the node's path already contains all characters to be found, then automatically add its descendants to the node list
+		else {
+			for(int w = trie.wordsStart(node); w < trie.wordsEnd(node); w++) {
+				Word word = trie.wordAt(w);
+				if(word.letters.length() > rootWord.length()) {	 //This prevents the node list from including the node of the search key itself
+					steals.add(new TreeNode(word, otherCharsFound));
+				}
+			}
+			int child = trie.firstChild(node);
+			for(int mask = trie.childMask(node); mask != 0; mask &= mask - 1, child++)
+				find(child, "", otherCharsFound + (char)('A' + Integer.numberOfTrailingZeros(mask)));
+		}
 	}
 
 	/**
@@ -142,31 +251,59 @@ class WordTree {
 	}
 
 	/**
-	 * Recursively generates a JSON-formatted list for displaying a word tree diagram
+	 * Traverses the tree recursively and works out the letters each child adds to its parent
+	 * and how likely they are to be drawn
+	 */
+	private void weigh(TreeNode node) {
+		for (TreeNode child : node.getChildren()) {
+			String nextSteal = child.getLongSteal();
+			for (String s : node.getLongSteal().split("")) {
+				nextSteal = nextSteal.replaceFirst(s, "");
+			}
+			child.setShortSteal(nextSteal);
+			child.setProb(ProbCalc.getProbability(nextSteal));
+			weigh(child);
+		}
+	}
+
+	/**
+	 * @return the number of words in the tree, including the rootWord
+	 */
+	int size() {
+		return steals.size() + 1;
+	}
+
+	/**
+	 * Generates a JSON-formatted list for displaying a word tree diagram, e.g.
 	 * 	 *'[{"id":"grubb", "longsteal": ""},{"id":"grubb.BUGBEAR", longsteal: "AE"}]'
+	 *
+	 * @param prefix the id of the rootWord
+	 */
+	JSONArray generateJSON(String prefix) {
+		JSONArray jsonArray = new JSONArray();
+		generateJSON(jsonArray, prefix, rootNode, 1);
+		return jsonArray;
+	}
+
+	/**
+	 * Recursively adds the given node and its descendants to the list
 	 */
-	void generateJSON(String prefix, TreeNode node, double prob) {
+	private void generateJSON(JSONArray jsonArray, String prefix, TreeNode node, double prob) {
 
 		jsonArray.put(new JSONObject()
 			.put("id", prefix)
 			.put("shortsteal", node.getShortSteal())
 			.put("longsteal", node.getLongSteal())
 			.put("prob", ProbCalc.round(100 * prob, 1))
-			.put("def", node.getWord().definition)
+			.put("def", node.getWord().getDefinition())
 		);
 
 		double norm = 0;
 		for (TreeNode child : node.getChildren()) {
-			String nextSteal = child.getLongSteal();
-			for (String s : node.getLongSteal().split("")) {
-				nextSteal = nextSteal.replaceFirst(s, "");
-			}
-			child.setShortSteal(nextSteal);
-			child.setProb(ProbCalc.getProbability(nextSteal));
 			norm += child.getProb();
 		}
 		for (TreeNode child : node.getChildren()) {
-			generateJSON(prefix + "." + child.annotate(), child, prob*child.getProb()/norm);
+			generateJSON(jsonArray, prefix + "." + child.annotate(), child, prob*child.getProb()/norm);
 		}
 	}
 }
\ No newline at end of file